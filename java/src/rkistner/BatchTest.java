@@ -16,15 +16,20 @@
 
 package rkistner;
 
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.oned.MultiFormatOneDReader;
 import rkistner.algorithms.*;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Ralf Kister <ralf.kistner@gmail.com>
@@ -42,7 +47,7 @@ public class BatchTest {
         }
     };
 
-    private static List<File> allFiles(File root, int limit) {
+    static List<File> allFiles(File root, int limit) {
         List<File> files = new ArrayList<File>();
         List<File> images = Arrays.asList(root.listFiles(IMAGE_FILTER));
         if(limit > 0 && images.size() > limit)
@@ -58,6 +63,86 @@ public class BatchTest {
 
     private static String root = "images";
 
+    // The number of threads that load and test images. Set rkistner.timingThreads to test on a separate,
+    // smaller pool, so that the timings only compete with each other, and not with the loading. The race
+    // runs a thread per factory of its own, so it is timed after all tests rather than alongside them, and
+    // a machine needs at least that many free cores for the race times to mean anything.
+    private static final int THREADS = Integer.getInteger("rkistner.threads", 1);
+    private static final int TIMING_THREADS = Integer.getInteger("rkistner.timingThreads", 0);
+
+    /**
+     * The work for one image: loading it, testing each factory on it, the pre-screen, and the 1D attempt.
+     */
+    private static final class ImageJob {
+        final int scale;
+        final Category category;
+        final File file;
+        List<Future<TestResult>> results;
+        // Whether the pre-screen accepted it, and the time it took
+        Future<long[]> measurements;
+        // Whether the 1D attempt decoded it, and the fraction of the image it read
+        Future<float[]> rowAttempt;
+
+        ImageJob(int scale, Category category, File file) {
+            this.scale = scale;
+            this.category = category;
+            this.file = file;
+        }
+
+        BufferedImage load() throws IOException {
+            // Scaled images are subsampled while decoding, rather than shrunk afterwards
+            return BatchTest.load(file, scale == 1 ? 2 : 1);
+        }
+
+        /**
+         * The tests are submitted after the loading, so with a shared pool a test only waits for a
+         * load that has already started.
+         */
+        void submit(ExecutorService loaders, ExecutorService testers, BinarizerFactory[] factories, final PreScreen preScreen,
+                    final BinarizerFactory rowFactory) {
+            final Future<TestImageSource> source = loaders.submit(new Callable<TestImageSource>() {
+                public TestImageSource call() throws IOException {
+                    TestImageSource source = new TestImageSource(load(), null);
+                    source.setName(file.getPath());
+                    source.setData(expectedText(file));
+                    return source;
+                }
+            });
+            results = new ArrayList<Future<TestResult>>();
+            for(final BinarizerFactory factory : factories) {
+                results.add(testers.submit(new Callable<TestResult>() {
+                    public TestResult call() throws IOException {
+                        return new BinarizerTest(factory).test(get(source), false);
+                    }
+                }));
+            }
+            measurements = testers.submit(new Callable<long[]>() {
+                public long[] call() throws IOException {
+                    LuminanceSource lum = new RasterLuminanceSource(get(source).getTestImage());
+                    long[] result = new long[2];
+                    long start = System.nanoTime();
+                    result[0] = preScreen.accept(lum) ? 1 : 0;
+                    result[1] = System.nanoTime() - start;
+                    return result;
+                }
+            });
+            // Not timed, so it runs with the loading
+            rowAttempt = loaders.submit(new Callable<float[]>() {
+                public float[] call() throws IOException {
+                    LuminanceSource lum = new RasterLuminanceSource(get(source).getTestImage());
+                    FastWindowBinarizer binarizer = (FastWindowBinarizer) rowFactory.getBinarizer(lum);
+                    boolean decoded;
+                    try {
+                        decoded = new MultiFormatOneDReader(null).decode(new BinaryBitmap(binarizer)) != null;
+                    } catch(ReaderException e) {
+                        decoded = false;
+                    }
+                    return new float[] {decoded ? 1 : 0, binarizer.getMaterializedFraction()};
+                }
+            });
+        }
+    }
+
     private static Map<Category, List<File>> catFiles = new HashMap<Category, List<File>>();
 
     private static List<File> getFiles(Category cat) {
@@ -69,8 +154,22 @@ public class BatchTest {
 
     static List<File> allFiles;
 
-    private static void locateFiles(int limit) {
+    // The entries of the images, if root is a pack rather than a directory
+    private static Map<File, DatasetPack.Entry> packed = new HashMap<File, DatasetPack.Entry>();
+
+    private static void locateFiles(int limit) throws IOException {
         File f = new File(root);
+        if(f.isFile()) {
+            DatasetPack pack = new DatasetPack(f);
+            allFiles = new ArrayList<File>();
+            for(DatasetPack.Entry entry : pack.getEntries()) {
+                File file = new File(entry.getPath());
+                allFiles.add(file);
+                packed.put(file, entry);
+                getFiles(entry.getCategory()).add(file);
+            }
+            return;
+        }
         allFiles = allFiles(f, limit);
         for(File file : allFiles) {
             List<File> files = getFiles(Category.fromPath(file.getPath()));
@@ -88,82 +187,309 @@ public class BatchTest {
                 GlobalBinarizer.createFactory(new ZXingThresholder()),
                 rkistner.algorithms.HybridBinarizer.createFactory(),
                 SimpleWindowBinarizer.createFactory(0.13f),
+                LocalStatisticsBinarizer.createFactory(0.13f, LocalStatisticsBinarizer.sauvola(0.3, 128)),
         };
         int nf = factories.length;
 
+        // The pre-screen is evaluated on its own. An image that no factory decodes is hopeless, and
+        // should be rejected.
+        PreScreen preScreen = new PreScreen();
+        int rejectedHopeless = 0;
+        int rejectedDecodable = 0;
+        int acceptedHopeless = 0;
+
+        // 1D readers only request rows, which FastWindowBinarizer binarizes on demand, so each attempt
+        // reports how much of the image it needed
+        BinarizerFactory rowFactory = FastWindowBinarizer.createFactory(4, 0.129f);
+        int rowDecoded = 0;
+        double rowRead = 0;
+
+        // The cascade learns from the same results, so the time it saves is measured in-sample
+        Cascade cascade = new Cascade(factories);
+        List<Category> imageCategories = new ArrayList<Category>();
+        List<boolean[]> imageDecoded = new ArrayList<boolean[]>();
+        List<int[]> imageTimes = new ArrayList<int[]>();
+
+        // The race and a single thread running the same factories in order, with the time to the first
+        // decode of each image that was decoded
+        List<Long> raceTimes = new ArrayList<Long>();
+        List<Long> sequentialTimes = new ArrayList<Long>();
+
+        // None of the threads are daemons, so they are stopped however the run ends
+        ExecutorService raceExecutor = Executors.newFixedThreadPool(nf);
+        ExecutorService sequentialExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService loaders = Executors.newFixedThreadPool(THREADS);
+        ExecutorService testers = TIMING_THREADS > 0 ? Executors.newFixedThreadPool(TIMING_THREADS) : loaders;
+        Race race = new Race(raceExecutor, factories);
+        Race sequential = new Race(sequentialExecutor, factories);
         PrintWriter out = new PrintWriter(new File("results/results.csv"));
+        try {
+            out.print(Category.getCSVHeader());
+            out.print(",file");
+            for(BinarizerFactory factory : factories) {
+                out.print("," + factory);
+                out.print("," + factory + "-T");
+                out.print("," + factory + "-TT");
+            }
+            out.print("," + preScreen);
+            out.print("," + preScreen + "-T");
+            out.print("," + rowFactory + " 1D");
+            out.print("," + rowFactory + " 1D-read");
+            out.println();
 
-        out.print(Category.getCSVHeader());
-        out.print(",file");
-        for(BinarizerFactory factory : factories) {
-            out.print("," + factory);
-            out.print("," + factory + "-T");
-            out.print("," + factory + "-TT");
-        }
-        out.println();
-
-        // Just to trigger JIT optimizations before we start testing the performance
-        int counter = 0;
-        outer:
-        for (List<File> files : catFiles.values()) {
-            for (File file : files) {
-                if(++counter == 100)
-                    break outer;
-                BufferedImage img = ImageIO.read(file);
-                TestImageSource source = new TestImageSource(img, null);
-                for(BinarizerFactory factory : factories) {
-                    BinarizerTest test = new BinarizerTest(factory);
-                    test.test(source, false);
+            // Just to trigger JIT optimizations before we start testing the performance
+            int counter = 0;
+            outer:
+            for (List<File> files : catFiles.values()) {
+                for (File file : files) {
+                    if(++counter == 100)
+                        break outer;
+                    BufferedImage img = load(file, 1);
+                    TestImageSource source = new TestImageSource(img, null);
+                    for(BinarizerFactory factory : factories) {
+                        BinarizerTest test = new BinarizerTest(factory);
+                        test.test(source, false);
+                    }
                 }
             }
-        }
 
-        for(int scale = 0; scale < 1; scale++) {
-            for(Map.Entry<Category, List<File>> entry : catFiles.entrySet()) {
-                Category cat = entry.getKey();
-                List<File> files = entry.getValue();
-                System.out.println();
-                System.out.println();
-                System.out.println(cat);
+            // The images in the order of the serial run. Each image is loaded once, after which its factories
+            // are tested as separate work items. Results are written in order, while up to window images
+            // ahead of the one being written are loaded and tested.
+            List<ImageJob> jobs = new ArrayList<ImageJob>();
+            for(int scale = 0; scale < 1; scale++) {
+                for(Map.Entry<Category, List<File>> entry : catFiles.entrySet()) {
+                    for(File file : entry.getValue()) {
+                        jobs.add(new ImageJob(scale, entry.getKey(), file));
+                    }
+                }
+            }
 
+            int window = 2 * Math.max(THREADS, TIMING_THREADS);
+            int submitted = 0;
+            Category previous = null;
+            for(int j = 0; j < jobs.size(); j++) {
+                for(; submitted < jobs.size() && submitted <= j + window; submitted++) {
+                    jobs.get(submitted).submit(loaders, testers, factories, preScreen, rowFactory);
+                }
+                ImageJob job = jobs.get(j);
+                Category cat = job.category;
+                File file = job.file;
+                if(!cat.equals(previous)) {
+                    System.out.println();
+                    System.out.println();
+                    System.out.println(cat);
+                    previous = cat;
+                }
+                System.out.println("Tested " + file + " (" + ++count + " out of " + jobs.size() + ")");
 
-                for(File file : files) {
-                    System.out.println("Loading " + file + " (" + ++count + " out of " + allFiles.size() + ")");
+                if(job.scale == 1) {
+                    out.print("scaled" + cat.getCSV());
+                    out.print(",scaled/" + file.getPath());
+                } else {
+                    out.print(cat.getCSV());
+                    out.print("," + file.getPath());
+                }
 
+                boolean decodable = false;
+                boolean[] decoded = new boolean[nf];
+                int[] times = new int[nf];
+                for(int i = 0; i < nf; i++) {
+                    TestResult result = get(job.results.get(i));
+                    decodable |= result.isDecoded();
+                    decoded[i] = result.isDecoded();
+                    times[i] = result.getTotalTime();
+                    cascade.learn(cat, i, decoded[i], times[i]);
 
-                    BufferedImage img = ImageIO.read(file);
-                    if(scale == 1)
-                        img = Util.scale(img, 0.5);
-                    TestImageSource source = new TestImageSource(img, null);
-                    source.setName(file.getPath());
+                    out.print("," + (result.isDecoded() ? 1 : 0));
+                    out.print("," + (result.getBinarizeTime()));
+                    out.print("," + (result.getTotalTime()));
+                }
 
-                    int i = 0;
+                imageCategories.add(cat);
+                imageDecoded.add(decoded);
+                imageTimes.add(times);
 
-                    if(scale == 1) {
-                        out.print("scaled" + cat.getCSV());
-                        out.print(",scaled/" + file.getPath());
-                    } else {
-                        out.print(cat.getCSV());
-                        out.print("," + file.getPath());
-                    }
+                long[] measurements = get(job.measurements);
+                float[] rowAttempt = get(job.rowAttempt);
+                // Release the image once its results are written
+                job.results = null;
+                job.measurements = null;
+                job.rowAttempt = null;
 
-                    for(BinarizerFactory factory : factories) {
-                        BinarizerTest test = new BinarizerTest(factory);
-                        TestResult result = test.test(source, false);
+                boolean accepted = measurements[0] != 0;
+                if(!accepted && !decodable)
+                    rejectedHopeless++;
+                else if(!accepted)
+                    rejectedDecodable++;
+                else if(!decodable)
+                    acceptedHopeless++;
+                out.print("," + (accepted ? 1 : 0));
+                out.print("," + measurements[1]);
+                out.print("," + (int) rowAttempt[0]);
+                out.print("," + rowAttempt[1]);
+                rowDecoded += (int) rowAttempt[0];
+                rowRead += rowAttempt[1];
+                out.println();
+            }
+            out.flush();
 
-                        out.print("," + (result.isDecoded() ? 1 : 0));
-                        out.print("," + (result.getBinarizeTime()));
-                        out.print("," + (result.getTotalTime()));
-                        i++;
-                    }
-                    out.println();
+            // The race and the sequential run are timed after all tests, so that the race's threads do not
+            // compete with the timed tests. The images are loaded again, one at a time.
+            System.out.println();
+            System.out.println("Racing " + jobs.size() + " images");
+            for(ImageJob job : jobs) {
+                BufferedImage image = job.load();
+                // Each run gets its own source, so that only the first would pay for converting the
+                // image to luminance otherwise
+                long time = time(sequential, new RasterLuminanceSource(image));
+                if(time >= 0)
+                    sequentialTimes.add(time);
+                time = time(race, new RasterLuminanceSource(image));
+                if(time >= 0)
+                    raceTimes.add(time);
+                idle(raceExecutor, nf);
+            }
+        } finally {
+            out.close();
+            loaders.shutdownNow();
+            testers.shutdownNow();
+            raceExecutor.shutdownNow();
+            sequentialExecutor.shutdownNow();
+        }
+
+        // Precision: the fraction of rejected images that were hopeless. Recall: the fraction of
+        // hopeless images that were rejected.
+        System.out.println();
+        System.out.println(preScreen + ": " + rejectedHopeless + " hopeless and " + rejectedDecodable + " decodable images rejected, "
+                + acceptedHopeless + " hopeless images accepted");
+        System.out.println("Reject precision: " + ratio(rejectedHopeless, rejectedHopeless + rejectedDecodable)
+                + ", recall: " + ratio(rejectedHopeless, rejectedHopeless + acceptedHopeless));
+
+        System.out.println(rowFactory + " 1D: " + rowDecoded + " images decoded, mean fraction of the image read: "
+                + (float) (rowRead / Math.max(1, imageCategories.size())));
+
+        Integer[] given = new Integer[nf];
+        for(int i = 0; i < nf; i++) {
+            given[i] = i;
+        }
+        long givenTime = 0;
+        long cascadeTime = 0;
+        for(int j = 0; j < imageCategories.size(); j++) {
+            givenTime += cascadeTime(given, imageDecoded.get(j), imageTimes.get(j));
+            cascadeTime += cascadeTime(cascade.order(imageCategories.get(j)), imageDecoded.get(j), imageTimes.get(j));
+        }
+        System.out.println();
+        for(Category cat : catFiles.keySet()) {
+            System.out.println(cat + ": " + cascade.getFactories(cat));
+        }
+        int images = Math.max(1, imageCategories.size());
+        System.out.println("Mean time per image in the given order: " + givenTime / images / 1000 + "us, in the "
+                + "learned order: " + cascadeTime / images / 1000 + "us");
+
+        System.out.println("Time to first decode in order: " + percentiles(sequentialTimes) + ", racing: " + percentiles(raceTimes));
+    }
+
+    /**
+     * @return the time the race takes to decode the source, or -1 if it does not decode it
+     */
+    private static long time(Race race, LuminanceSource source) {
+        try {
+            long start = System.nanoTime();
+            Result result = race.decode(source);
+            long time = System.nanoTime() - start;
+            if(result != null)
+                return time;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return -1;
+    }
 
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits until all threads of the executor are free, so that the attempts a race leaves running after
+     * it is won do not slow down the next measurement.
+     */
+    private static void idle(ExecutorService executor, int threads) {
+        final CountDownLatch latch = new CountDownLatch(threads);
+        List<Future<?>> barriers = new ArrayList<Future<?>>();
+        for(int i = 0; i < threads; i++) {
+            barriers.add(executor.submit(new Runnable() {
+                public void run() {
+                    latch.countDown();
+                    try {
+                        latch.await();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
                 }
+            }));
+        }
+        try {
+            for(Future<?> barrier : barriers) {
+                barrier.get();
             }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String percentiles(List<Long> times) {
+        if(times.isEmpty())
+            return "n/a";
+        List<Long> sorted = new ArrayList<Long>(times);
+        Collections.sort(sorted);
+        return "p50 " + percentile(sorted, 0.5) / 1000 + "us, p99 " + percentile(sorted, 0.99) / 1000 + "us";
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.max(0, (int) Math.ceil(p * sorted.size()) - 1));
+    }
+
+    /**
+     * @return the time taken to try the factories in the order until one decodes
+     */
+    private static long cascadeTime(Integer[] order, boolean[] decoded, int[] times) {
+        long time = 0;
+        for(int i : order) {
+            time += times[i];
+            if(decoded[i])
+                break;
         }
+        return time;
+    }
+
+    private static BufferedImage load(File file, int subsampling) throws IOException {
+        DatasetPack.Entry entry = packed.get(file);
+        if(entry != null)
+            return entry.getImage(subsampling);
+        return Util.readLuminance(file, subsampling);
+    }
+
+    private static String expectedText(File file) throws IOException {
+        DatasetPack.Entry entry = packed.get(file);
+        if(entry != null)
+            return entry.getText();
+        return DatasetPack.expectedText(file);
+    }
 
-        out.flush();
-        out.close();
+    private static String ratio(int count, int total) {
+        return total == 0 ? "n/a" : String.valueOf((float) count / total);
     }
 
 
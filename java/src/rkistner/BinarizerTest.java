@@ -17,10 +17,11 @@
 package rkistner;
 
 import com.google.zxing.*;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeReader;
 import rkistner.algorithms.BinarizerFactory;
+import rkistner.algorithms.PreScreen;
+import rkistner.algorithms.RasterLuminanceSource;
 
 /**
  *
@@ -28,17 +29,32 @@ import rkistner.algorithms.BinarizerFactory;
 public class BinarizerTest {
 
     private BinarizerFactory factory;
+    private PreScreen preScreen;
 
     public BinarizerTest(BinarizerFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * @param preScreen if not null, frames it rejects are neither binarized nor decoded
+     */
+    public BinarizerTest(BinarizerFactory factory, PreScreen preScreen) {
         this.factory = factory;
+        this.preScreen = preScreen;
     }
 
     public TestResult test(TestImageSource source, boolean storeImages) {
-        LuminanceSource lum = new BufferedImageLuminanceSource(source.getTestImage());
+        LuminanceSource lum = new RasterLuminanceSource(source.getTestImage());
         Binarizer bin = factory.getBinarizer(lum);
         BitMatrix binary = null;
         TestResult result = new TestResult();
         long start = System.nanoTime();
+        if(preScreen != null && !preScreen.accept(lum)) {
+            result.setRejected(true);
+            result.setTotalTime((int)(System.nanoTime()-start));
+            result.setSource(source);
+            return result;
+        }
         try {
             BinaryBitmap bitmap = new BinaryBitmap(bin);
             binary = bitmap.getBlackMatrix();
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.qrcode.QRCodeReader;
+import rkistner.algorithms.BinarizerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Tries a number of binarizers on an image until one of them decodes, in the order that minimizes the
+ * expected time until the image is decoded.
+ *
+ * If the binarizers succeed independently, that order is by decreasing success rate per millisecond.
+ * The rates and times are learned per category, from the results of BatchTest. The rate of a category
+ * is pulled towards the rate over all categories when there are few results for it, and categories
+ * without any results use the rates over all categories.
+ *
+ * A cascade is not thread safe while it is learning.
+ */
+public class Cascade {
+    // The number of results of a category at which its own rate counts as much as the overall rate
+    private static final double PRIOR_WEIGHT = 4;
+
+    private static final class Stats {
+        int attempts;
+        int decoded;
+        long time;
+
+        void add(boolean decoded, long time) {
+            attempts++;
+            if(decoded)
+                this.decoded++;
+            this.time += time;
+        }
+    }
+
+    private final BinarizerFactory[] factories;
+    private final Stats[] overall;
+    private final Map<Category, Stats[]> categories = new HashMap<Category, Stats[]>();
+
+    public Cascade(BinarizerFactory... factories) {
+        this.factories = factories.clone();
+        this.overall = newStats();
+    }
+
+    private Stats[] newStats() {
+        Stats[] stats = new Stats[factories.length];
+        for(int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+        return stats;
+    }
+
+    /**
+     * Adds the result of trying factory i on an image of the category.
+     *
+     * @param time the time taken to binarize and decode, in nanoseconds
+     */
+    public void learn(Category category, int i, boolean decoded, long time) {
+        Stats[] stats = categories.get(category);
+        if(stats == null) {
+            stats = newStats();
+            categories.put(category, stats);
+        }
+        stats[i].add(decoded, time);
+        overall[i].add(decoded, time);
+    }
+
+    /**
+     * Learns from the results written by BatchTest. Columns of factories that are not part of the
+     * cascade are ignored, and factories are matched by their names.
+     */
+    public void learn(File results) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(results));
+        try {
+            String[] header = in.readLine().split(",");
+            int[] columns = new int[factories.length];
+            for(int i = 0; i < factories.length; i++) {
+                columns[i] = Arrays.asList(header).indexOf(factories[i].toString());
+            }
+            String line;
+            while((line = in.readLine()) != null) {
+                String[] fields = line.split(",");
+                Category category = Category.fromCSV(fields, 0);
+                for(int i = 0; i < factories.length; i++) {
+                    int column = columns[i];
+                    if(column < 0)
+                        continue;
+                    // The decode flag is followed by the binarize time and the total time
+                    learn(category, i, fields[column].equals("1"), Long.parseLong(fields[column + 2]));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the indices of the factories in the order in which they are tried for the category
+     */
+    public Integer[] order(Category category) {
+        final double[] scores = new double[factories.length];
+        Stats[] stats = categories.get(category);
+        for(int i = 0; i < factories.length; i++) {
+            scores[i] = score(stats == null ? null : stats[i], overall[i]);
+        }
+        Integer[] order = new Integer[factories.length];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // A stable sort, so that factories without results keep their given order
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(scores[b], scores[a]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * @return the expected decodes per millisecond
+     */
+    private static double score(Stats stats, Stats overall) {
+        if(overall.attempts == 0)
+            return 0;
+        // The overall rate is smoothed as if there were one more success and one more failure
+        double prior = (overall.decoded + 1.0) / (overall.attempts + 2.0);
+        double rate = prior;
+        double time = overall.time / (double) overall.attempts;
+        if(stats != null && stats.attempts > 0) {
+            rate = (stats.decoded + PRIOR_WEIGHT * prior) / (stats.attempts + PRIOR_WEIGHT);
+            time = stats.time / (double) stats.attempts;
+        }
+        return rate / Math.max(time / 1e6, 1e-3);
+    }
+
+    /**
+     * @return the factories in the order in which they are tried for the category
+     */
+    public List<BinarizerFactory> getFactories(Category category) {
+        List<BinarizerFactory> result = new ArrayList<BinarizerFactory>();
+        for(int i : order(category)) {
+            result.add(factories[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a QR code from the source, trying the factories in order until one succeeds.
+     *
+     * @return the result, or null if none of the factories decoded the source
+     */
+    public Result decode(LuminanceSource source, Category category) {
+        QRCodeReader reader = new QRCodeReader();
+        for(BinarizerFactory factory : getFactories(category)) {
+            try {
+                return reader.decode(new BinaryBitmap(factory.getBinarizer(source)));
+            } catch(ReaderException e) {
+                // Try the next one
+            } catch(ArithmeticException e) {
+                // Try the next one
+            }
+        }
+        return null;
+    }
+
+    public String toString() {
+        return "Cascade " + Arrays.toString(factories);
+    }
+}
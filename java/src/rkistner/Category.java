@@ -138,6 +138,23 @@ public class Category {
         return result;
     }
 
+    /**
+     * Reads a category written by getCSV(), starting at fields[offset].
+     */
+    public static Category fromCSV(String[] fields, int offset) {
+        Category c = new Category();
+        c.setPhone(fromCSVField(fields[offset]));
+        c.setBaseLight(fromCSVField(fields[offset + 1]));
+        c.setShadowType(fromCSVField(fields[offset + 2]));
+        c.setBarcodeType(fromCSVField(fields[offset + 3]));
+        c.setBackgroundType(fromCSVField(fields[offset + 4]));
+        return c;
+    }
+
+    private static String fromCSVField(String field) {
+        return field.equals("null") ? null : field;
+    }
+
     public static String getCSVHeader() {
         return "Phone,Light,Shadow,Barcode,Background";
     }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner;
+
+import rkistner.algorithms.RasterLuminanceSource;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single file with the luminance of every image of a data set, so that the images do not have to be
+ * decoded again for every test.
+ *
+ * The file starts with a header of the magic number, the version and the offset of the index. The raw
+ * 8 bit luminance of the images follows, row by row, and then the index: the number of images, and for
+ * each image its path, category, expected text, width, height and the offset of its luminance.
+ *
+ * The luminance is mapped into memory once, when the pack is opened, and every image is read through
+ * a slice of that mapping, so only the pages of images that are used are read, and they are shared
+ * between runs through the page cache. A mapping is limited to 2GB, so a larger pack is mapped in as
+ * many chunks as it needs, each holding whole images.
+ */
+public class DatasetPack {
+    private static final int MAGIC = 0x51525043;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * An image in a pack.
+     */
+    public final class Entry {
+        private final String path;
+        private final Category category;
+        private final String text;
+        private final int width;
+        private final int height;
+        private final long offset;
+        // The chunk of the mapping holding the image, and the position of the image in it
+        private ByteBuffer chunk;
+        private int position;
+
+        private Entry(String path, Category category, String text, int width, int height, long offset) {
+            this.path = path;
+            this.category = category;
+            this.text = text;
+            this.width = width;
+            this.height = height;
+            this.offset = offset;
+        }
+
+        private long size() {
+            return (long) width * height;
+        }
+
+        /**
+         * @return the path of the image when it was packed
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public Category getCategory() {
+            return category;
+        }
+
+        /**
+         * @return the text the barcode in the image should decode to, or null if it is not known
+         */
+        public String getText() {
+            return text;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return a TYPE_BYTE_GRAY image of every subsampling'th pixel in both directions
+         */
+        public BufferedImage getImage(int subsampling) {
+            // A slice of its own, so that images can be read from several threads
+            ByteBuffer buffer = chunk.duplicate();
+            buffer.position(position);
+            buffer = buffer.slice();
+            int w = (width + subsampling - 1) / subsampling;
+            int h = (height + subsampling - 1) / subsampling;
+            byte[] data = new byte[w * h];
+            if(subsampling == 1) {
+                buffer.get(data);
+            } else {
+                for(int y = 0; y < h; y++) {
+                    int row = y * subsampling * width;
+                    for(int x = 0; x < w; x++) {
+                        data[y * w + x] = buffer.get(row + x * subsampling);
+                    }
+                }
+            }
+            return grayImage(data, w, h);
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    /**
+     * Opens a pack written by write().
+     */
+    public DatasetPack(File pack) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(pack, "r");
+        FileChannel channel = file.getChannel();
+        try {
+            if(file.readInt() != MAGIC)
+                throw new IOException("Not a dataset pack: " + pack);
+            int version = file.readInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported dataset pack version " + version + ": " + pack);
+            channel.position(file.readLong());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int count = in.readInt();
+            for(int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Category category = Category.fromCSV(in.readUTF().split(","), 0);
+                String text = in.readBoolean() ? in.readUTF() : null;
+                int width = in.readInt();
+                int height = in.readInt();
+                long offset = in.readLong();
+                entries.add(new Entry(path, category, text, width, height, offset));
+            }
+            map(channel);
+        } finally {
+            // The mapping stays valid after the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * Maps the images in as few chunks as possible, in the order they were written.
+     */
+    private void map(FileChannel channel) throws IOException {
+        int first = 0;
+        while(first < entries.size()) {
+            long start = entries.get(first).offset;
+            int last = first + 1;
+            while(last < entries.size() && entries.get(last).offset + entries.get(last).size() - start <= Integer.MAX_VALUE)
+                last++;
+            Entry end = entries.get(last - 1);
+            ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end.offset + end.size() - start);
+            for(int i = first; i < last; i++) {
+                Entry entry = entries.get(i);
+                entry.chunk = chunk;
+                entry.position = (int) (entry.offset - start);
+            }
+            first = last;
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return the text of the .txt file next to the image, without its line break, or null if there is
+     *         none
+     */
+    public static String expectedText(File image) throws IOException {
+        String name = image.getName();
+        int dot = name.lastIndexOf('.');
+        File text = new File(image.getParentFile(), (dot < 0 ? name : name.substring(0, dot)) + ".txt");
+        if(!text.isFile())
+            return null;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(text), "UTF-8"));
+        try {
+            String line = in.readLine();
+            return line == null ? "" : line;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the images and writes their luminance to a pack. The category of an image is taken from
+     * its path, and the expected text from expectedText().
+     */
+    public static void write(List<File> images, File pack) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(pack, "rw");
+        try {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);
+
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            DataOutputStream index = new DataOutputStream(indexBytes);
+            index.writeInt(images.size());
+            long offset = HEADER_SIZE;
+            for(File image : images) {
+                BufferedImage img = Util.readLuminance(image, 1);
+                byte[] data = new RasterLuminanceSource(img).getMatrix();
+                out.write(data, 0, img.getWidth() * img.getHeight());
+
+                String text = expectedText(image);
+                index.writeUTF(image.getPath());
+                index.writeUTF(Category.fromPath(image.getPath()).getCSV());
+                index.writeBoolean(text != null);
+                if(text != null)
+                    index.writeUTF(text);
+                index.writeInt(img.getWidth());
+                index.writeInt(img.getHeight());
+                index.writeLong(offset);
+                offset += (long) img.getWidth() * img.getHeight();
+            }
+            index.flush();
+            out.write(indexBytes.toByteArray());
+            out.seek(8);
+            out.writeLong(offset);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return a TYPE_BYTE_GRAY image backed by the data, without copying it
+     */
+    static BufferedImage grayImage(byte[] data, int width, int height) {
+        ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] {8}, false, true,
+                Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(data, data.length), width, height, width, 1, new int[] {0}, null);
+        return new BufferedImage(model, raster, false, null);
+    }
+
+    /**
+     * Packs the images under a directory, as found by BatchTest.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("Usage: DatasetPack <image directory> <pack file>");
+            System.exit(1);
+        }
+        List<File> images = BatchTest.allFiles(new File(args[0]), 0);
+        write(images, new File(args[1]));
+        System.out.println("Packed " + images.size() + " images into " + args[1]);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import rkistner.algorithms.*;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Times the kernels and the binarizers that use them, with the kernels chosen by Kernels.get().
+ *
+ * Run it once as is and once with -Drkistner.kernels=vector to compare the binarizers ("ant
+ * kernel-benchmark" does both). The kernels themselves are compared against the scalar
+ * implementation in the same run.
+ *
+ * Usage: KernelBenchmark [image]. Without an image, a synthetic 1600x1200 image is used.
+ */
+public class KernelBenchmark {
+    private static final int ITERATIONS = 50;
+
+    private interface Task {
+        void run() throws NotFoundException;
+    }
+
+    /**
+     * @return the average time of one run in microseconds, after a warm-up
+     */
+    private static long time(Task task) throws NotFoundException {
+        for(int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS / 1000;
+    }
+
+    private static byte[] syntheticImage(int width, int height) {
+        // A lighting gradient with dark blocks on it, and some noise
+        byte[] data = new byte[width*height];
+        Random random = new Random(0);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                int v = 80 + 120 * x / width + 40 * y / height;
+                if(((x / 23) ^ (y / 17)) % 3 == 0)
+                    v -= 70;
+                v += random.nextInt(21) - 10;
+                data[y*width + x] = (byte)Math.max(0, Math.min(255, v));
+            }
+        }
+        return data;
+    }
+
+    private static final class ArraySource extends LuminanceSource {
+        private final byte[] data;
+
+        ArraySource(byte[] data, int width, int height) {
+            super(width, height);
+            this.data = data;
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            int width = getWidth();
+            if(row == null || row.length < width)
+                row = new byte[width];
+            System.arraycopy(data, y*width, row, 0, width);
+            return row;
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            return data;
+        }
+    }
+
+    private static void kernels(final Kernels kernels, final byte[] data, final int width, final int height) throws NotFoundException {
+        final int[] columns = new int[width];
+        final int[] thresholds = new int[width];
+        for(int x = 0; x < width; x++) {
+            thresholds[x] = 128;
+        }
+        final int[] words = new int[(width + 31) >> 5];
+        long widen = time(new Task() {
+            public void run() {
+                for(int y = 0; y < height; y++) {
+                    kernels.addWidened(data, y*width, columns, 0, width);
+                }
+            }
+        });
+        long blocks = time(new Task() {
+            public void run() {
+                for(int y = 0; y < height; y++) {
+                    kernels.addBlockSums(data, y*width, 8, width / 8, columns, 0);
+                }
+            }
+        });
+        long compare = time(new Task() {
+            public void run() {
+                for(int y = 0; y < height; y++) {
+                    for(int x = 0; x < width; x += 32) {
+                        words[x >> 5] = kernels.compare(data, y*width + x, Math.min(32, width - x), 128);
+                    }
+                }
+            }
+        });
+        long compareEach = time(new Task() {
+            public void run() {
+                for(int y = 0; y < height; y++) {
+                    for(int x = 0; x < width; x += 32) {
+                        words[x >> 5] = kernels.compare(data, y*width + x, Math.min(32, width - x), thresholds, x);
+                    }
+                }
+            }
+        });
+        System.out.println(kernels + "\twiden " + widen + "us\tblock sums " + blocks + "us\tcompare " + compare + "us\tcompare per pixel " + compareEach + "us");
+    }
+
+    public static void main(String[] args) throws IOException, NotFoundException {
+        final LuminanceSource source;
+        if(args.length > 0) {
+            LuminanceSource image = new BufferedImageLuminanceSource(ImageIO.read(new File(args[0])));
+            source = new ArraySource(image.getMatrix(), image.getWidth(), image.getHeight());
+        } else {
+            source = new ArraySource(syntheticImage(1600, 1200), 1600, 1200);
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        System.out.println("Image " + width + "x" + height + ", kernels: " + Kernels.get());
+
+        kernels(Kernels.scalar(), source.getMatrix(), width, height);
+        if(Kernels.get() != Kernels.scalar())
+            kernels(Kernels.get(), source.getMatrix(), width, height);
+
+        String[] names = new String[] {
+                "Global [Otsu]",
+                "Window [4|0.13]",
+                "Window [8|0.13]",
+                "SimpleWindow [0.13]",
+                "SimpleWindow [0.13|streaming]",
+        };
+        BinarizerEngine[] engines = new BinarizerEngine[] {
+                new GlobalBinarizer.Engine(new OtsuThresholder()),
+                new FastWindowBinarizer.Engine(4, 0.13f),
+                new FastWindowBinarizer.Engine(8, 0.13f),
+                new SimpleWindowBinarizer.Engine(0.13f, false),
+                new SimpleWindowBinarizer.Engine(0.13f, true),
+        };
+        for(int i = 0; i < engines.length; i++) {
+            final BinarizerEngine engine = engines[i];
+            final BitMatrix matrix = new BitMatrix(width, height);
+            long t = time(new Task() {
+                public void run() throws NotFoundException {
+                    engine.binarize(source, matrix);
+                }
+            });
+            System.out.println(names[i] + "\t" + t + "us");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.qrcode.QRCodeReader;
+import rkistner.algorithms.BinarizerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes a QR code from an image by trying a number of binarizers on it at the same time. The first
+ * decode wins, and the other attempts are cancelled. This trades CPU time for latency: the time to
+ * a decode is that of the fastest binarizer that succeeds, rather than the sum of the ones tried
+ * before it.
+ *
+ * Neither the binarizers nor the reader can be interrupted, so cancellation is cooperative: an
+ * attempt stops before binarizing and before decoding if another attempt has already won, and
+ * attempts that have not started yet are not started at all. An attempt that is binarizing or
+ * decoding runs to the end, and keeps its thread busy until then.
+ *
+ * A race can be shared between threads.
+ */
+public class Race {
+    private final ExecutorService executor;
+    private final BinarizerFactory[] factories;
+
+    /**
+     * @param executor runs the attempts. It should have a thread per factory, or the later factories
+     *                 only start when earlier ones are done.
+     */
+    public Race(ExecutorService executor, BinarizerFactory... factories) {
+        this.executor = executor;
+        this.factories = factories.clone();
+    }
+
+    /**
+     * @param source is read by all attempts at the same time
+     * @return the result of the first attempt to decode the source, or null if none of them decoded it
+     */
+    public Result decode(final LuminanceSource source) throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        CompletionService<Result> attempts = new ExecutorCompletionService<Result>(executor);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        for(final BinarizerFactory factory : factories) {
+            futures.add(attempts.submit(new Callable<Result>() {
+                public Result call() {
+                    return attempt(factory, source, done);
+                }
+            }));
+        }
+
+        Result result = null;
+        try {
+            for(int i = 0; i < factories.length && result == null; i++) {
+                try {
+                    result = attempts.take().get();
+                } catch(ExecutionException e) {
+                    // A binarizer failed in a way other than not finding the code. It loses the race,
+                    // just as it would have failed on its own.
+                }
+            }
+        } finally {
+            done.set(true);
+            for(Future<Result> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the decoded result, or null if it could not be decoded or another attempt won first
+     */
+    private static Result attempt(BinarizerFactory factory, LuminanceSource source, AtomicBoolean done) {
+        if(done.get())
+            return null;
+        try {
+            // The bitmap keeps the matrix, so the reader does not binarize again
+            BinaryBitmap bitmap = new BinaryBitmap(factory.getBinarizer(source));
+            bitmap.getBlackMatrix();
+            if(done.get())
+                return null;
+            Result result = new QRCodeReader().decode(bitmap);
+            done.set(true);
+            return result;
+        } catch(ReaderException e) {
+            return null;
+        }
+    }
+
+    public String toString() {
+        return "Race " + Arrays.toString(factories);
+    }
+}
@@ -30,6 +30,7 @@ public class TestResult {
     private TestImageSource source;
 
     private boolean decoded = false;
+    private boolean rejected = false;
 
     private int binarizeTime;
     private int totalTime;
@@ -108,6 +109,17 @@ public class TestResult {
         this.decoded = decoded;
     }
 
+    /**
+     * @return true if the pre-screen rejected the image, so that it was not binarized
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    public void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+
     public int getTotalPixels() {
         return source.getTestImage().getWidth() * source.getTestImage().getHeight();
     }
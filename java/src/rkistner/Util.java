@@ -20,8 +20,19 @@ import com.google.zxing.LuminanceSource;
 import com.google.zxing.common.BitMatrix;
 
 
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 
 /**
  *
@@ -158,4 +169,84 @@ public class Util {
         result.createGraphics().drawImage(input, 0, 0, width, height, null);
         return result;
     }
+
+    /**
+     * Reads an image, keeping only every subsampling'th pixel in both directions.
+     *
+     * Gray and YCbCr JPEGs are returned as a TYPE_BYTE_GRAY image of the stored luminance, which skips
+     * the colour conversion. The chroma is still decoded. Other images are read in colour.
+     */
+    public static BufferedImage readLuminance(File file, int subsampling) throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if(in == null)
+            throw new IOException("Cannot read " + file);
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if(!readers.hasNext())
+                throw new IOException("No reader for " + file);
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, false);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                if(!isLuminanceJPEG(reader))
+                    return reader.read(0, param);
+
+                // The raster is read without colour conversion, so the first band is the luminance
+                Raster raster = reader.readRaster(0, param);
+                int width = raster.getWidth();
+                int height = raster.getHeight();
+                BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+                result.getRaster().setRect(raster.createChild(raster.getMinX(), raster.getMinY(), width, height, 0, 0, new int[] {0}));
+                return result;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Follows the rules of the JDK JPEG reader: a three component image is YCbCr if it has a JFIF
+     * marker, an Adobe marker with transform 1, or neither marker and components not named R, G and B.
+     *
+     * @return true if the reader reads a JPEG of which the first component is the luminance
+     */
+    private static boolean isLuminanceJPEG(ImageReader reader) throws IOException {
+        if(!reader.getFormatName().equalsIgnoreCase("jpeg") || !reader.canReadRaster())
+            return false;
+        Node tree = reader.getImageMetadata(0).getAsTree("javax_imageio_jpeg_image_1.0");
+        Node jfif = find(tree, "app0JFIF");
+        Node adobe = find(tree, "app14Adobe");
+        Node sof = find(tree, "sof");
+        if(sof == null)
+            return false;
+        NamedNodeMap frame = sof.getAttributes();
+        int components = Integer.parseInt(frame.getNamedItem("numFrameComponents").getNodeValue());
+        if(components == 1)
+            return true;
+        if(components != 3)
+            return false;
+        if(adobe != null)
+            return adobe.getAttributes().getNamedItem("transform").getNodeValue().equals("1");
+        if(jfif != null)
+            return true;
+        Node first = find(sof, "componentSpec");
+        return first == null || !first.getAttributes().getNamedItem("componentId").getNodeValue().equals("82");
+    }
+
+    /**
+     * @return the first node with the name in a depth-first search, or null
+     */
+    private static Node find(Node node, String name) {
+        if(node.getNodeName().equals(name))
+            return node;
+        for(Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            Node found = find(child, name);
+            if(found != null)
+                return found;
+        }
+        return null;
+    }
 }
@@ -33,6 +33,7 @@ import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,6 +43,7 @@ import java.util.Map;
 public class VisualTest implements ChangeListener {
     private FilterFactory filters;
     private BinarizerFactory[] factories;
+    private Map<BinarizerFactory, TemporalWindowBinarizer.Tracker> trackers;
 
 
     private JFrame form;
@@ -60,8 +62,17 @@ public class VisualTest implements ChangeListener {
     }
 
     public VisualTest(FilterFactory filters, BinarizerFactory[] factories) {
+        this(filters, factories, new HashMap<BinarizerFactory, TemporalWindowBinarizer.Tracker>());
+    }
+
+    /**
+     * @param trackers the trackers of temporal factories. Every update is a frame for them, and the
+     *                 fraction of the frame they reused is shown with their results.
+     */
+    public VisualTest(FilterFactory filters, BinarizerFactory[] factories, Map<BinarizerFactory, TemporalWindowBinarizer.Tracker> trackers) {
         this.filters = filters;
         this.factories = factories;
+        this.trackers = trackers;
 
 
         form = new JFrame("Test");
@@ -140,7 +151,11 @@ public class VisualTest implements ChangeListener {
 
                 Box box = Box.createVerticalBox();
 
-                JLabel nameLabel = new JLabel(factory.toString());
+                String name = factory.toString();
+                TemporalWindowBinarizer.Tracker tracker = trackers.get(factory);
+                if(tracker != null)
+                    name += ", reused " + Math.round(tracker.getReusedFraction() * 100) + "%";
+                JLabel nameLabel = new JLabel(name);
                 nameLabel.setOpaque(true);
                 Color c;
                 if(result.isDecoded()) {
@@ -177,11 +192,17 @@ public class VisualTest implements ChangeListener {
     }
 
     public static void main(String[] args) {
+        TemporalWindowBinarizer.Tracker tracker = new TemporalWindowBinarizer.Tracker(4, 0.129f, 2);
+        BinarizerFactory temporal = TemporalWindowBinarizer.createFactory(tracker);
         BinarizerFactory[] factories = new BinarizerFactory[] {
                 WindowRNBinarizer.createFactory(4, 0.129f, 6),
                 FastWindowBinarizer.createFactory(4, 0.129f),
+                temporal,
                 HybridBinarizer.createFactory(),
                 SplitBinarizer.createFactory(3, 3),
+                LocalStatisticsBinarizer.createFactory(0.13f, LocalStatisticsBinarizer.sauvola(0.3, 128)),
+                LocalStatisticsBinarizer.createFactory(0.13f, LocalStatisticsBinarizer.niblack(-0.2)),
+                PyramidBinarizer.createFactory(2, 0.13f),
                 GlobalBinarizer.createFactory(new OtsuThresholder()),
                 GlobalBinarizer.createFactory(new KittlerThresholder()),
                 GlobalBinarizer.createFactory(new ZXingThresholder()),
@@ -191,7 +212,9 @@ public class VisualTest implements ChangeListener {
         };
 
         FilterFactory filter = new ChainedFilter.ChainFactory(Arrays.asList(IntensityFilter.FACTORY, BlurFilter.FACTORY, SpotLight.FACTORY, WhiteNoise.FACTORY));
-        VisualTest vt = new VisualTest(filter, factories);
+        Map<BinarizerFactory, TemporalWindowBinarizer.Tracker> trackers = new HashMap<BinarizerFactory, TemporalWindowBinarizer.Tracker>();
+        trackers.put(temporal, tracker);
+        VisualTest vt = new VisualTest(filter, factories, trackers);
         vt.show();
     }
 }
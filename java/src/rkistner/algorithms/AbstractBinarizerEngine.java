@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Base class for engines that keep a scratch object per thread.
+ *
+ * @param <S> the type of the scratch buffers used by one thread
+ */
+public abstract class AbstractBinarizerEngine<S> implements BinarizerEngine {
+    private final ThreadLocal<S> scratch = new ThreadLocal<S>() {
+        @Override
+        protected S initialValue() {
+            return createScratch();
+        }
+    };
+
+    public BitMatrix binarize(LuminanceSource source, BitMatrix matrix) throws NotFoundException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if(matrix == null || matrix.getWidth() != width || matrix.getHeight() != height) {
+            matrix = new BitMatrix(width, height);
+        } else {
+            matrix.clear();
+        }
+        binarize(source, matrix, scratch.get());
+        return matrix;
+    }
+
+    /**
+     * @return the scratch buffers of the calling thread
+     */
+    protected S getScratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Creates empty scratch buffers. The buffers are sized by the engine as needed.
+     */
+    protected abstract S createScratch();
+
+    /**
+     * Binarizes the source into a cleared matrix of the same size.
+     */
+    protected abstract void binarize(LuminanceSource source, BitMatrix matrix, S scratch) throws NotFoundException;
+}
@@ -21,15 +21,13 @@ package rkistner.algorithms;
  */
 public class AverageThresholder implements ThresholdFinder {
     public int findThreshold(int[] buckets) {
-        int numBuckets = buckets.length;
-        int total = 0;
-        int atotal = 0;
-        for (int x = 0; x < numBuckets; x++) {
-            total += buckets[x];
-            atotal += x * buckets[x];
-        }
+        return findThreshold(new HistogramStats().compute(buckets));
+    }
+
+    public int findThreshold(HistogramStats stats) {
+        long total = stats.getTotal();
         if(total > 0)
-            return atotal / total;
+            return (int) (stats.moment(stats.getSize()) / total);
         else
             return 0;
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs work that is independent per row, or per block row, as bands of consecutive rows on a
+ * ForkJoinPool.
+ */
+final class Bands {
+    /**
+     * Work on the rows [start, end).
+     */
+    interface Band {
+        void process(int start, int end);
+    }
+
+    private Bands() {
+    }
+
+    /**
+     * Processes the rows [0, count). Without a pool, the whole range is processed on the calling
+     * thread.
+     */
+    static void run(ForkJoinPool pool, int count, Band band) {
+        if(pool == null || count <= 1) {
+            band.process(0, count);
+        } else {
+            pool.invoke(new Action(band, 0, count, grain(pool, count)));
+        }
+    }
+
+    /**
+     * @return how many bands count rows should be split into for work that needs fixed bands
+     */
+    static int split(ForkJoinPool pool, int count) {
+        if(pool == null)
+            return 1;
+        return Math.max(1, Math.min(count, pool.getParallelism() * 4));
+    }
+
+    private static int grain(ForkJoinPool pool, int count) {
+        // A few bands per thread, so that uneven bands still balance.
+        return Math.max(1, count / (pool.getParallelism() * 4));
+    }
+
+    private static final class Action extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band band;
+        private final int start;
+        private final int end;
+        private final int grain;
+
+        Action(Band band, int start, int end, int grain) {
+            this.band = band;
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if(end - start <= grain) {
+                band.process(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Action(band, start, middle, grain), new Action(band, middle, end, grain));
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * A configured binarization algorithm that is independent of any one source.
+ *
+ * Engines can be shared between threads. Implementations keep their scratch buffers per thread and
+ * reuse them between calls, so binarizing frames of the same size into the same matrix does not
+ * allocate.
+ */
+public interface BinarizerEngine {
+    /**
+     * Binarizes the source into the given matrix. The matrix is cleared before use. If it is null or
+     * does not have the same size as the source, a new one is created.
+     *
+     * @return the matrix containing the result
+     */
+    public BitMatrix binarize(LuminanceSource source, BitMatrix matrix) throws NotFoundException;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Writes thresholded pixels to the rows of a BitMatrix or to a BitArray, a word at a time.
+ *
+ * The bits of 32 pixels are assembled without branches and stored as one word, instead of setting
+ * every black pixel separately. Rows are always written completely, so the bits of white pixels are
+ * cleared as well.
+ */
+public final class BitWriter {
+    private static final Kernels KERNELS = Kernels.get();
+
+    private BitWriter() {
+    }
+
+    /**
+     * Writes row y of the matrix. A pixel is black if data[offset + x] is below threshold.
+     */
+    public static void write(byte[] data, int offset, int threshold, BitMatrix matrix, int y) {
+        write(data, offset, matrix.width, threshold, matrix.bits, y * matrix.rowSize);
+    }
+
+    /**
+     * Writes row y of the matrix. A pixel is black if data[offset + x] is below thresholds[x].
+     */
+    public static void write(byte[] data, int offset, int[] thresholds, BitMatrix matrix, int y) {
+        write(data, offset, matrix.width, thresholds, matrix.bits, y * matrix.rowSize);
+    }
+
+    /**
+     * Writes the first width bits of the row. A pixel is black if data[offset + x] is below threshold.
+     */
+    public static void write(byte[] data, int offset, int width, int threshold, BitArray row) {
+        write(data, offset, width, threshold, row.bits, 0);
+    }
+
+    /**
+     * Writes the first width bits of the row. A pixel is black if data[offset + x] is below
+     * thresholds[x].
+     */
+    public static void write(byte[] data, int offset, int width, int[] thresholds, BitArray row) {
+        write(data, offset, width, thresholds, row.bits, 0);
+    }
+
+    /**
+     * Writes the first width bits of the row. A pixel is black if values[x] is below threshold.
+     */
+    public static void write(int[] values, int width, int threshold, BitArray row) {
+        int[] bits = row.bits;
+        for(int x = 0, word = 0; x < width; x += 32, word++) {
+            int length = Math.min(32, width - x);
+            int mask = 0;
+            for(int i = 0; i < length; i++) {
+                mask |= ((values[x + i] - threshold) >>> 31) << i;
+            }
+            bits[word] = mask;
+        }
+    }
+
+    /**
+     * Spreads the thresholds of count blocks of bs pixels over the pixels of a row of the given
+     * width. Pixels to the right of the last block get a threshold of 0, so they are never black.
+     */
+    public static void spread(int[] blockThresholds, int count, int bs, int[] thresholds, int width) {
+        int x = 0;
+        for(int b = 0; b < count; b++) {
+            int threshold = blockThresholds[b];
+            for(int end = x + bs; x < end; x++) {
+                thresholds[x] = threshold;
+            }
+        }
+        for(; x < width; x++) {
+            thresholds[x] = 0;
+        }
+    }
+
+    private static void write(byte[] data, int offset, int width, int threshold, int[] bits, int word) {
+        for(int x = 0; x < width; x += 32) {
+            bits[word++] = KERNELS.compare(data, offset + x, Math.min(32, width - x), threshold);
+        }
+    }
+
+    private static void write(byte[] data, int offset, int width, int[] thresholds, int[] bits, int word) {
+        for(int x = 0; x < width; x += 32) {
+            bits[word++] = KERNELS.compare(data, offset + x, Math.min(32, width - x), thresholds, x);
+        }
+    }
+}
@@ -24,6 +24,10 @@ public class ConstantThresholder implements ThresholdFinder {
         return buckets.length / 2;
     }
 
+    public int findThreshold(HistogramStats stats) {
+        return findThreshold(stats.getHistogram());
+    }
+
     public String toString() {
         return "Constant";
     }
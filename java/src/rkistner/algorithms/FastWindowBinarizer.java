@@ -22,108 +22,306 @@ import com.google.zxing.NotFoundException;
 import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 
+import java.util.concurrent.ForkJoinPool;
+
 
 public final class FastWindowBinarizer extends Binarizer {
     
     public static BinarizerFactory createFactory(final int bs, final float frac) {
+        return createFactory(bs, frac, null);
+    }
+
+    public static BinarizerFactory createFactory(final int bs, final float frac, final ForkJoinPool pool) {
+        final Engine engine = new Engine(bs, frac, pool);
         return new BinarizerFactory() {
             public FastWindowBinarizer getBinarizer(LuminanceSource source) {
-                return new FastWindowBinarizer(source, bs, frac);
+                return new FastWindowBinarizer(source, engine);
             }
 
             public String toString() {
-                return "Window [" + bs + "|" + frac + "]";
+                return "Window [" + bs + "|" + frac + (pool != null ? "|parallel" : "") + "]";
             }
         };
     }
 
-    private int bs = 8;
-    private float frac = 3;
+    /**
+     * Binarizes with a fixed block size and window fraction. An engine can be shared between threads.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final IntegralImage totals = new IntegralImage();
+            // Used instead of totals if the sums of a window do not fit in an int
+            final LongIntegralImage wideTotals = new LongIntegralImage();
+            int[] pixelThresholds;
+
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
+
+        private final int bs;
+        private final float frac;
+        private final ForkJoinPool pool;
+        private final Kernels kernels = Kernels.get();
+
+        public Engine(int bs, float frac) {
+            this(bs, frac, null);
+        }
+
+        /**
+         * @param pool if not null, the integral image of the block totals and the thresholding are
+         *             split into bands of block rows and run on this pool. The result is identical.
+         */
+        public Engine(int bs, float frac, ForkJoinPool pool) {
+            this.bs = bs;
+            this.frac = frac;
+            this.pool = pool;
+        }
+
+        private int radius(int width, int height) {
+            return (int)(Math.min(width, height) * frac / bs / 2 + 1);
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
 
+        @Override
+        protected void binarize(LuminanceSource source, final BitMatrix matrix, Scratch scratch) {
+            final int width = source.getWidth();
+            int height = source.getHeight();
+            int ah = height / bs;
+            final byte[] data = source.getMatrix();
+
+            final int r = radius(width, height);
+            final IntegralImage totals;
+            final LongIntegralImage wideTotals;
+            if(fits(width / bs, ah, r)) {
+                totals = scratch.totals.computeBlocks(data, width, height, bs, pool);
+                wideTotals = null;
+            } else {
+                totals = null;
+                wideTotals = scratch.wideTotals.computeBlocks(data, width, height, bs, null);
+            }
+
+            Bands.run(pool, ah, new Bands.Band() {
+                public void process(int start, int end) {
+                    threshold(data, width, totals, wideTotals, r, matrix, start, end);
+                }
+            });
+        }
+
+        /**
+         * @return true if the sums of the windows of aw x ah blocks fit in an int
+         */
+        private boolean fits(int aw, int ah, int r) {
+            return IntegralImage.fits((long) Math.min(aw, 2*r - 1) * Math.min(ah, 2*r - 1), bs*bs*255L);
+        }
+
+        /**
+         * @return the average of the window of the block. Either totals or wideTotals is null.
+         */
+        private int blockThreshold(IntegralImage totals, LongIntegralImage wideTotals, int r, int bx, int by, int aw, int ah) {
+            int top = Math.max(0, by - r + 1);
+            int left = Math.max(0, bx - r + 1);
+            int bottom = Math.min(ah, by + r);
+            int right = Math.min(aw, bx + r);
+
+            int pixels = (bottom - top) * (right - left) * bs * bs;
+            if(totals != null)
+                return totals.window(top, left, bottom, right) / pixels;
+            else
+                return (int) (wideTotals.window(top, left, bottom, right) / pixels);
+        }
+
+        /**
+         * The block thresholds of a block row are spread out over the pixels, so that the rows of the
+         * block row can be written a word at a time. Either totals or wideTotals is null.
+         */
+        private void threshold(byte[] data, int width, IntegralImage totals, LongIntegralImage wideTotals, int r, BitMatrix matrix, int startBy, int endBy) {
+            int aw = width / bs;
+            int ah = totals != null ? totals.getHeight() : wideTotals.getHeight();
+            int[] thresholds = getScratch().pixelThresholds(width);
+            // Pixels to the right of the last whole block are never black
+            for(int x = aw*bs; x < width; x++) {
+                thresholds[x] = 0;
+            }
+            for(int by = startBy; by < endBy; by++) {
+                for(int bx = 0; bx < aw; bx++) {
+                    int avg = blockThreshold(totals, wideTotals, r, bx, by, aw, ah);
+                    for(int x = bx*bs; x < (bx+1)*bs; x++) {
+                        thresholds[x] = avg;
+                    }
+                }
+
+                for(int y = by*bs; y < (by+1)*bs; y++) {
+                    BitWriter.write(data, y*width, thresholds, matrix, y);
+                }
+            }
+        }
+    }
+
+    private final Engine engine;
+    private final int bs;
+
+    // Used for rows only. blockTotal is filled in one block row at a time, and bandColumns holds the
+    // sum of each block column over the block rows [bandTop, bandBottom).
+    private int[] blockTotal;
+    private boolean[] blockRowDone;
+    private int[] bandColumns;
+    private long[] bandPrefix;
+    private int bandTop;
+    private int bandBottom;
+    private int[] rowThresholds;
+    private int[] pixelThresholds;
+    private int thresholdRow = -1;
+    private byte[] rowData;
+    // How much of the image has been read, for getMaterializedFraction()
+    private int blockRowsRead;
+    private boolean matrixRead;
 
     public FastWindowBinarizer(LuminanceSource source, int bs, float frac) {
+        this(source, new Engine(bs, frac));
+    }
+
+    public FastWindowBinarizer(LuminanceSource source, Engine engine) {
         super(source);
-        this.bs = bs;
-        this.frac = frac;
+        this.engine = engine;
+        this.bs = engine.bs;
     }
 
+    private int radius() {
+        LuminanceSource source = getLuminanceSource();
+        return engine.radius(source.getWidth(), source.getHeight());
+    }
 
-    private void blockTotals(byte[] data, int[][] total) {
+    private void blockRow(int by) {
+        if(blockRowDone[by])
+            return;
         LuminanceSource source = getLuminanceSource();
-        int width = source.getWidth();
-        int height = source.getHeight();
-        int aw = width / bs;
-        int ah = height / bs;
+        int aw = source.getWidth() / bs;
+        int offset = by*aw;
+        for(int bx = 0; bx < aw; bx++) {
+            blockTotal[offset + bx] = 0;
+        }
+        for(int y = by*bs; y < (by+1)*bs; y++) {
+            rowData = source.getRow(y, rowData);
+            engine.kernels.addBlockSums(rowData, 0, bs, aw, blockTotal, offset);
+        }
+        blockRowDone[by] = true;
+        blockRowsRead++;
+    }
+
+    /**
+     * Calculates the threshold of every block in block row by. Only the block rows inside the window
+     * are read from the source, and the window is moved incrementally for consecutive block rows.
+     *
+     * @return the threshold of every pixel in the block row
+     */
+    private int[] blockThresholds(int by) {
+        if(by == thresholdRow)
+            return pixelThresholds;
+        LuminanceSource source = getLuminanceSource();
+        int r = radius();
+        int aw = source.getWidth() / bs;
+        int ah = source.getHeight() / bs;
+        if(blockRowDone == null) {
+            blockTotal = new int[ah*aw];
+            blockRowDone = new boolean[ah];
+            bandColumns = new int[aw];
+            bandPrefix = new long[aw + 1];
+            rowThresholds = new int[aw];
+            pixelThresholds = new int[source.getWidth()];
+            bandTop = bandBottom = 0;
+        }
 
-        for(int by = 0; by < ah; by++) {
-            int ey = (by+1)*bs;
+        int top = Math.max(0, by - r + 1);
+        int bottom = Math.min(ah, by + r);
+        if(top < bandTop || top >= bandBottom || bottom < bandBottom) {
             for(int bx = 0; bx < aw; bx++) {
-                int t = 0;
-
-                for(int y = by*bs; y < ey; y++) {
-                    int offset = y*width+bx*bs;
-                    int ex = offset+bs;
-                    for(; offset < ex; offset++) {
-                        int v = data[offset] & 0xff;
-                        t += v;
-                    }
-                }
-                total[by][bx] = t;
+                bandColumns[bx] = 0;
+            }
+            bandTop = bandBottom = top;
+        }
+        for(; bandTop < top; bandTop++) {
+            int offset = bandTop*aw;
+            for(int bx = 0; bx < aw; bx++) {
+                bandColumns[bx] -= blockTotal[offset + bx];
+            }
+        }
+        for(; bandBottom < bottom; bandBottom++) {
+            blockRow(bandBottom);
+            int offset = bandBottom*aw;
+            for(int bx = 0; bx < aw; bx++) {
+                bandColumns[bx] += blockTotal[offset + bx];
             }
         }
-    }
-
 
-    @Override
-    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
-        return null;
+        long t = 0;
+        for(int bx = 0; bx < aw; bx++) {
+            t += bandColumns[bx];
+            bandPrefix[bx + 1] = t;
+        }
+        for(int bx = 0; bx < aw; bx++) {
+            int left = Math.max(0, bx - r + 1);
+            int right = Math.min(aw, bx + r);
+            long block = bandPrefix[right] - bandPrefix[left];
+            int pixels = (bottom - top) * (right - left) * bs * bs;
+            rowThresholds[bx] = (int) (block / pixels);
+        }
+        BitWriter.spread(rowThresholds, aw, bs, pixelThresholds, source.getWidth());
+        thresholdRow = by;
+        return pixelThresholds;
     }
 
     @Override
-    public BitMatrix getBlackMatrix() throws NotFoundException {
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
         LuminanceSource source = getLuminanceSource();
         int width = source.getWidth();
-        int height = source.getHeight();
-        int r = (int)(Math.min(width, height) * frac / bs / 2 + 1);
-        int aw = width / bs;
-        int ah = height / bs;
-        byte[] data = source.getMatrix();
-
-        int[][] blockTotal = new int[ah][aw];
-        blockTotals(data, blockTotal);
-
-        int[][] totals = Common.cumulative(blockTotal);
-        
-        
-        BitMatrix matrix = new BitMatrix(width, height);
-        for(int by = 0; by < ah; by++) {
-            for(int bx = 0; bx < aw; bx++) {
-                int top = Math.max(0, by - r + 1);
-                int left = Math.max(0, bx - r + 1);
-                int bottom = Math.min(ah, by + r);
-                int right = Math.min(aw, bx + r);
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
 
-                int block = totals[bottom][right] + totals[top][left] - totals[top][right] - totals[bottom][left];
+        int ah = source.getHeight() / bs;
+        int by = y / bs;
+        if(by >= ah)
+            return row;
 
+        int[] thresholds = blockThresholds(by);
+        rowData = source.getRow(y, rowData);
+        BitWriter.write(rowData, 0, width, thresholds, row);
+        return row;
+    }
 
-                int pixels = (bottom - top) * (right - left) * bs * bs;
-                int avg = block / pixels;
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        matrixRead = true;
+        return engine.binarize(getLuminanceSource(), null);
+    }
 
-                for(int y = by*bs; y < (by+1)*bs; y++) {
-                    for(int x = bx*bs; x < (bx+1)*bs; x++) {
-                        int pixel = data[y*width + x] & 0xff;
-                        if(pixel < avg)
-                            matrix.set(x, y);
-                    }
-                }
-            }
-        }
-        return matrix;
+    /**
+     * A matrix cannot be binarized lazily, since BitMatrix is final and the detectors read its bits
+     * directly. Rows are, so this reports how much of the image a reader that only requests rows has
+     * actually needed.
+     *
+     * @return the fraction of the block rows that have been read from the source, from 0 to 1. Once
+     *         the matrix has been requested, this is 1.
+     */
+    public float getMaterializedFraction() {
+        if(matrixRead)
+            return 1;
+        int ah = getLuminanceSource().getHeight() / bs;
+        return ah == 0 ? 0 : (float) blockRowsRead / ah;
     }
 
     @Override
     public Binarizer createBinarizer(LuminanceSource source) {
-        return null;
+        return new FastWindowBinarizer(source, engine);
     }
 
 }
\ No newline at end of file
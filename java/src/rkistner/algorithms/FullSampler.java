@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Samples every pixel of the region. With a pool, bands of rows are counted into histograms of their
+ * own, which are added up at the end. The histograms of the bands are kept per calling thread, so a
+ * sampler can be shared between threads.
+ */
+public class FullSampler implements HistogramSampler {
+    private final ForkJoinPool pool;
+    // The histograms of the bands after the first, which is counted into the caller's histogram
+    private final ThreadLocal<int[][]> scratch = new ThreadLocal<int[][]>();
+
+    public FullSampler() {
+        this(null);
+    }
+
+    public FullSampler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public void sample(LuminanceSource source, final int left, final int top, final int width, final int height, final int shift, final int[] histogram, byte[] row) {
+        final byte[] data = source.getMatrix();
+        final int stride = source.getWidth();
+        final int bands = Bands.split(pool, height);
+        final int buckets = histogram.length;
+        final int[][] histograms = bands > 1 ? histograms(bands, buckets) : null;
+        Bands.run(pool, bands, new Bands.Band() {
+            public void process(int start, int end) {
+                for (int band = start; band < end; band++) {
+                    int[] local = histogram;
+                    if (band != 0) {
+                        local = histograms[band];
+                        Arrays.fill(local, 0);
+                    }
+                    for (int y = top + band * height / bands; y < top + (band + 1) * height / bands; y++) {
+                        int offset = y * stride + left;
+                        for (int x = 0; x < width; x++) {
+                            local[(data[offset + x] & 0xff) >> shift]++;
+                        }
+                    }
+                }
+            }
+        });
+        for (int band = 1; band < bands; band++) {
+            for (int i = 0; i < buckets; i++) {
+                histogram[i] += histograms[band][i];
+            }
+        }
+    }
+
+    /**
+     * @return the histograms of the calling thread, for at least the given number of bands
+     */
+    private int[][] histograms(int bands, int buckets) {
+        int[][] histograms = scratch.get();
+        if (histograms == null || histograms.length < bands || histograms[1].length != buckets) {
+            histograms = new int[bands][];
+            for (int band = 1; band < bands; band++) {
+                histograms[band] = new int[buckets];
+            }
+            scratch.set(histograms);
+        }
+        return histograms;
+    }
+
+    public long cost(int width, int height) {
+        return (long) width * height;
+    }
+
+    public String toString() {
+        return pool != null ? "full|parallel" : "full";
+    }
+}
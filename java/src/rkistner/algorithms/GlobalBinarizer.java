@@ -40,9 +40,10 @@ import com.google.zxing.common.BitMatrix;
  */
 public class GlobalBinarizer extends Binarizer {
     public static BinarizerFactory createFactory(final ThresholdFinder thresholder) {
+        final Engine engine = new Engine(thresholder);
         return new BinarizerFactory() {
             public GlobalBinarizer getBinarizer(LuminanceSource source) {
-                return new GlobalBinarizer(source, thresholder);
+                return new GlobalBinarizer(source, engine);
             }
 
             public String toString() {
@@ -51,18 +52,122 @@ public class GlobalBinarizer extends Binarizer {
         };
     }
 
+    public static BinarizerFactory createFactory(final ThresholdFinder thresholder, final int bits, final HistogramSampler sampler) {
+        final Engine engine = new Engine(thresholder, bits, sampler);
+        return new BinarizerFactory() {
+            public GlobalBinarizer getBinarizer(LuminanceSource source) {
+                return new GlobalBinarizer(source, engine);
+            }
+
+            public String toString() {
+                return "GlobalBinarizer [" + thresholder + "|" + bits + "|" + sampler + "]";
+            }
+        };
+    }
+
     private static final int LUMINANCE_BITS = 6;
-    private static final int LUMINANCE_SHIFT = 8 - LUMINANCE_BITS;
-    private static final int LUMINANCE_BUCKETS = 1 << LUMINANCE_BITS;
+
+    /**
+     * Binarizes with a fixed threshold selection algorithm and histogram. An engine can be shared
+     * between threads, provided that the thresholder and sampler can.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            byte[] luminances;
+            int[] buckets;
+            final HistogramStats stats = new HistogramStats();
+        }
+
+        private final ThresholdFinder thresholder;
+        private final int shift;
+        private final int buckets;
+        private final HistogramSampler sampler;
+
+        /**
+         * Uses a histogram of the 6 most significant bits of four rows, like the ZXing
+         * GlobalHistogramBinarizer.
+         */
+        public Engine(ThresholdFinder thresholder) {
+            this(thresholder, LUMINANCE_BITS, new RowSampler(4));
+        }
+
+        /**
+         * @param bits the number of most significant bits of the luminance used for the histogram,
+         *             from 4 to 8
+         * @param sampler chooses the pixels that go into the histogram
+         */
+        public Engine(ThresholdFinder thresholder, int bits, HistogramSampler sampler) {
+            if (bits < 4 || bits > 8)
+                throw new IllegalArgumentException("Histogram bits must be from 4 to 8: " + bits);
+            this.thresholder = thresholder;
+            this.shift = 8 - bits;
+            this.buckets = 1 << bits;
+            this.sampler = sampler;
+        }
+
+        public HistogramSampler getSampler() {
+            return sampler;
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        @Override
+        protected void binarize(LuminanceSource source, BitMatrix matrix, Scratch scratch) throws NotFoundException {
+            int width = source.getWidth();
+            int height = source.getHeight();
+
+            int blackPoint = getBlackPoint(source, 0, 0, width, height, scratch);
+
+            // We delay reading the entire image luminance until the black point estimation succeeds.
+            // Although we end up reading the sampled rows twice, it is consistent with our motto of
+            // "fail quickly" which is necessary for continuous scanning.
+            byte[] localLuminances = source.getMatrix();
+            for (int y = 0; y < height; y++) {
+                BitWriter.write(localLuminances, y * width, blackPoint, matrix, y);
+            }
+        }
+
+        /**
+         * @return the black point of a region of the source, estimated from a sample of its pixels
+         */
+        int getBlackPoint(LuminanceSource source, int left, int top, int width, int height, Scratch scratch) {
+            int[] histogram = getHistogram(source, left, top, width, height, scratch);
+            return thresholder.findThreshold(scratch.stats.compute(histogram)) << shift;
+        }
+
+        private int[] getHistogram(LuminanceSource source, int left, int top, int width, int height, Scratch scratch) {
+            if (scratch.luminances == null || scratch.luminances.length < source.getWidth()) {
+                scratch.luminances = new byte[source.getWidth()];
+            }
+            if (scratch.buckets == null || scratch.buckets.length != buckets) {
+                scratch.buckets = new int[buckets];
+            }
+            int[] localBuckets = scratch.buckets;
+            for (int x = 0; x < buckets; x++) {
+                localBuckets[x] = 0;
+            }
+            sampler.sample(source, left, top, width, height, shift, localBuckets, scratch.luminances);
+            return localBuckets;
+        }
+    }
 
     private byte[] luminances = null;
     private int[] buckets = null;
+    private int[] sharpened = null;
+    private final HistogramStats stats = new HistogramStats();
 
-    private ThresholdFinder thresholder;
+    private final Engine engine;
 
     public GlobalBinarizer(LuminanceSource source, ThresholdFinder thresholder) {
+        this(source, new Engine(thresholder));
+    }
+
+    public GlobalBinarizer(LuminanceSource source, Engine engine) {
         super(source);
-        this.thresholder = thresholder;
+        this.engine = engine;
     }
 
     // Applies simple sharpening to the row data to improve performance of the 1D Readers.
@@ -81,87 +186,48 @@ public class GlobalBinarizer extends Binarizer {
         int[] localBuckets = buckets;
         for (int x = 0; x < width; x++) {
             int pixel = localLuminances[x] & 0xff;
-            localBuckets[pixel >> LUMINANCE_SHIFT]++;
+            localBuckets[pixel >> engine.shift]++;
         }
-        int blackPoint = thresholder.findThreshold(localBuckets) << LUMINANCE_SHIFT;
+        int blackPoint = engine.thresholder.findThreshold(stats.compute(localBuckets)) << engine.shift;
 
+        // The first and last pixels are not filtered, and are always white.
+        int[] localSharpened = sharpened;
+        localSharpened[0] = blackPoint;
+        localSharpened[width - 1] = blackPoint;
         int left = localLuminances[0] & 0xff;
         int center = localLuminances[1] & 0xff;
         for (int x = 1; x < width - 1; x++) {
             int right = localLuminances[x + 1] & 0xff;
             // A simple -1 4 -1 box filter with a weight of 2.
-            int luminance = ((center << 2) - left - right) >> 1;
-            if (luminance < blackPoint) {
-                row.set(x);
-            }
+            localSharpened[x] = ((center << 2) - left - right) >> 1;
             left = center;
             center = right;
         }
+        BitWriter.write(localSharpened, width, blackPoint, row);
         return row;
     }
 
     // Does not sharpen the data, as this call is intended to only be used by 2D Readers.
 
     public BitMatrix getBlackMatrix() throws NotFoundException {
-        LuminanceSource source = getLuminanceSource();
-        int width = source.getWidth();
-        int height = source.getHeight();
-        BitMatrix matrix = new BitMatrix(width, height);
-
-        // Quickly calculates the histogram by sampling four rows from the image. This proved to be
-        // more robust on the blackbox tests than sampling a diagonal as we used to do.
-
-        int blackPoint = thresholder.findThreshold(getHistogram()) << LUMINANCE_SHIFT;
-
-        // We delay reading the entire image luminance until the black point estimation succeeds.
-        // Although we end up reading four rows twice, it is consistent with our motto of
-        // "fail quickly" which is necessary for continuous scanning.
-        byte[] localLuminances = source.getMatrix();
-        for (int y = 0; y < height; y++) {
-            int offset = y * width;
-            for (int x = 0; x < width; x++) {
-                int pixel = localLuminances[offset + x] & 0xff;
-                if (pixel < blackPoint) {
-                    matrix.set(x, y);
-                }
-            }
-        }
-
-        return matrix;
+        return engine.binarize(getLuminanceSource(), null);
     }
 
     public Binarizer createBinarizer(LuminanceSource source) {
-        return new GlobalBinarizer(source, thresholder);
+        return new GlobalBinarizer(source, engine);
     }
 
     private void initArrays(int luminanceSize) {
         if (luminances == null || luminances.length < luminanceSize) {
             luminances = new byte[luminanceSize];
+            sharpened = new int[luminanceSize];
         }
         if (buckets == null) {
-            buckets = new int[LUMINANCE_BUCKETS];
+            buckets = new int[engine.buckets];
         } else {
-            for (int x = 0; x < LUMINANCE_BUCKETS; x++) {
+            for (int x = 0; x < engine.buckets; x++) {
                 buckets[x] = 0;
             }
         }
     }
-
-    private int[] getHistogram() {
-        LuminanceSource source = getLuminanceSource();
-        int width = source.getWidth();
-        int height = source.getHeight();
-        initArrays(width);
-        int[] localBuckets = buckets;
-        for (int y = 1; y < 5; y++) {
-            int row = height * y / 5;
-            byte[] localLuminances = source.getRow(row, luminances);
-            int right = (width << 2) / 5;
-            for (int x = width / 5; x < right; x++) {
-                int pixel = localLuminances[x] & 0xff;
-                localBuckets[pixel >> LUMINANCE_SHIFT]++;
-            }
-        }
-        return localBuckets;
-    }
 }
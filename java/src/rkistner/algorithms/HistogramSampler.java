@@ -0,0 +1,39 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Chooses which pixels of a region go into the histogram of a GlobalBinarizer. Samplers trade the
+ * accuracy of the histogram for the time taken to build it, and report the number of pixels they
+ * read so that the trade-off can be tuned.
+ */
+public interface HistogramSampler {
+    /**
+     * Adds a sample of the pixels in the region [left, left + width) x [top, top + height) of the
+     * source to the histogram, in bucket pixel >> shift.
+     *
+     * @param row a buffer for source rows, of at least source.getWidth() bytes
+     */
+    public void sample(LuminanceSource source, int left, int top, int width, int height, int shift, int[] histogram, byte[] row);
+
+    /**
+     * @return the number of pixels sampled from a width x height region
+     */
+    public long cost(int width, int height);
+}
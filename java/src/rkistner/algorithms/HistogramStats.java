@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+/**
+ * Prefix sums of a histogram, so that the count, mean and variance of any range of buckets can be
+ * found in constant time. They are computed once per histogram and can be shared by several
+ * threshold finders.
+ *
+ * An instance can be recomputed for a new histogram, in which case the arrays are only reallocated if
+ * they are too small. The histogram itself is not copied.
+ */
+public final class HistogramStats {
+    private int[] histogram;
+    private int size;
+    // counts[i], moments[i] and squares[i] hold the sums of h[j], j*h[j] and j*j*h[j] for j < i
+    private long[] counts;
+    private long[] moments;
+    private long[] squares;
+
+    public HistogramStats compute(int[] histogram) {
+        int size = histogram.length;
+        if(counts == null || counts.length < size + 1) {
+            counts = new long[size + 1];
+            moments = new long[size + 1];
+            squares = new long[size + 1];
+        }
+        this.histogram = histogram;
+        this.size = size;
+        long count = 0;
+        long moment = 0;
+        long square = 0;
+        for(int i = 0; i < size; i++) {
+            long h = histogram[i];
+            count += h;
+            moment += i * h;
+            square += (long) i * i * h;
+            counts[i + 1] = count;
+            moments[i + 1] = moment;
+            squares[i + 1] = square;
+        }
+        return this;
+    }
+
+    public int[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of values in the buckets [0, to)
+     */
+    public long count(int to) {
+        return counts[to];
+    }
+
+    /**
+     * @return the sum of the bucket indices of the values in the buckets [0, to)
+     */
+    public long moment(int to) {
+        return moments[to];
+    }
+
+    /**
+     * @return the number of values in the buckets [from, to)
+     */
+    public long count(int from, int to) {
+        return counts[to] - counts[from];
+    }
+
+    /**
+     * @return the sum of the bucket indices of the values in the buckets [from, to)
+     */
+    public long moment(int from, int to) {
+        return moments[to] - moments[from];
+    }
+
+    /**
+     * @return the sum of the squared bucket indices of the values in the buckets [from, to)
+     */
+    public long squares(int from, int to) {
+        return squares[to] - squares[from];
+    }
+
+    /**
+     * @return the total number of values
+     */
+    public long getTotal() {
+        return counts[size];
+    }
+
+    /**
+     * @return the variance of the bucket indices of the values in the buckets [from, to), which must
+     *         not be empty. It is exactly 0 if all the values are in one bucket.
+     */
+    public double variance(int from, int to) {
+        double count = count(from, to);
+        double mean = moment(from, to) / count;
+        return squares(from, to) / count - mean * mean;
+    }
+
+    /**
+     * @return the first bucket i for which the buckets [0, i] hold at least half of the values
+     */
+    public int median() {
+        long total = getTotal();
+        int low = 0;
+        int high = size - 1;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(counts[middle + 1] * 2 >= total)
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+}
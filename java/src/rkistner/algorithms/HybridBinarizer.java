@@ -28,6 +28,10 @@ public class HybridBinarizer {
             public Binarizer getBinarizer(LuminanceSource source) {
                 return new com.google.zxing.common.HybridBinarizer(source);
             }
+
+            public String toString() {
+                return "HybridBinarizer";
+            }
         };
     }
 }
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A summed-area table backed by a single flat array.
+ *
+ * The entry at (x, y) holds the sum of all values in the rectangle [0, x) x [0, y), so the table has
+ * one more row and column than the data it was computed from. Rows are stored with a stride of
+ * width + 1 + padding.
+ *
+ * An instance can be recomputed in place for new data, in which case the backing array is only
+ * reallocated if it is too small.
+ *
+ * The entries wrap around when the values add up to more than an int can hold, but since int addition
+ * wraps as well, a window sum is still exact as long as the sum itself fits in an int. Use fits() to
+ * check this, and a LongIntegralImage for windows that do not fit.
+ */
+public final class IntegralImage {
+    private static final Kernels KERNELS = Kernels.get();
+
+    private final int padding;
+    private int width;
+    private int height;
+    private int stride;
+    private int[] totals;
+
+    public IntegralImage() {
+        this(0);
+    }
+
+    public IntegralImage(int padding) {
+        this.padding = padding;
+    }
+
+    /**
+     * Computes the table for width x height unsigned bytes, stored row by row.
+     */
+    public IntegralImage compute(byte[] data, int width, int height) {
+        resize(width, height);
+        int[] totals = this.totals;
+        int stride = this.stride;
+        for(int y = 0; y < height; y++) {
+            int offset = y*width;
+            int above = y*stride + 1;
+            int current = above + stride;
+            totals[current - 1] = 0;
+            int t = 0;
+            for(int x = 0; x < width; x++) {
+                t += data[offset + x] & 0xff;
+                totals[current + x] = totals[above + x] + t;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Computes the table for width x height ints, stored row by row.
+     */
+    public IntegralImage compute(int[] data, int width, int height) {
+        resize(width, height);
+        int[] totals = this.totals;
+        int stride = this.stride;
+        for(int y = 0; y < height; y++) {
+            int offset = y*width;
+            int above = y*stride + 1;
+            int current = above + stride;
+            totals[current - 1] = 0;
+            int t = 0;
+            for(int x = 0; x < width; x++) {
+                t += data[offset + x];
+                totals[current + x] = totals[above + x] + t;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Computes the table of the sums of the bs x bs blocks of width x height unsigned bytes, stored
+     * row by row. Pixels to the right of and below the last whole block are ignored.
+     *
+     * @param pool if not null, the work is split into bands of block rows and run on this pool
+     */
+    public IntegralImage computeBlocks(byte[] data, int width, int height, int bs, ForkJoinPool pool) {
+        return computeBlocks(data, width, height, bs, null, pool);
+    }
+
+    /**
+     * Computes the table of the sums of the bs x bs blocks of width x height unsigned bytes, and if
+     * squares is not null, the table of the sums of their squared values as well.
+     *
+     * Both tables are built in a single pass over the bytes. The block sums of a block row are
+     * accumulated directly in the row of the table, and summed in place, so the block sums are never
+     * stored separately.
+     *
+     * @param pool if not null, the work is split into bands of block rows and run on this pool
+     */
+    public IntegralImage computeBlocks(final byte[] data, final int width, int height, final int bs, final IntegralImage squares, ForkJoinPool pool) {
+        final int aw = width / bs;
+        int ah = height / bs;
+        resize(aw, ah);
+        if(squares != null)
+            squares.resize(aw, ah);
+        sum(new Rows() {
+            public void load(int by) {
+                int offset = (by + 1)*stride + 1;
+                for(int bx = 0; bx < aw; bx++) {
+                    totals[offset + bx] = 0;
+                }
+                for(int y = by*bs; y < (by+1)*bs; y++) {
+                    KERNELS.addBlockSums(data, y*width, bs, aw, totals, offset);
+                }
+                if(squares != null)
+                    KERNELS.sumBlockSquares(data, by*bs*width, width, bs, aw, squares.totals, (by + 1)*squares.stride + 1);
+            }
+        }, ah, pool, this, squares);
+        return this;
+    }
+
+    /**
+     * Loads the values of row y of one or more tables into the table rows, to be summed in place.
+     */
+    private interface Rows {
+        void load(int y);
+    }
+
+    /**
+     * Loads and sums the rows [0, height) of the given tables, skipping null tables.
+     *
+     * With a pool, the rows are split into bands. Each band is first summed as if it were at the top of
+     * the image, then the bottom rows of the bands are accumulated in order, and finally every band
+     * adds the bottom row of the band above it. Since int addition wraps, the result is identical to
+     * summing all rows in order.
+     */
+    private static void sum(final Rows rows, final int height, ForkJoinPool pool, final IntegralImage... tables) {
+        final int bands = Bands.split(pool, height);
+        Bands.run(pool, bands, new Bands.Band() {
+            public void process(int start, int end) {
+                for(int band = start; band < end; band++) {
+                    int first = band * height / bands;
+                    int last = (band + 1) * height / bands;
+                    for(int y = first; y < last; y++) {
+                        rows.load(y);
+                        for(IntegralImage table : tables) {
+                            if(table != null)
+                                table.sumRow(y, y == first);
+                        }
+                    }
+                }
+            }
+        });
+        if(bands <= 1)
+            return;
+
+        for(IntegralImage table : tables) {
+            if(table != null)
+                table.carryBands(bands);
+        }
+        Bands.run(pool, bands - 1, new Bands.Band() {
+            public void process(int start, int end) {
+                for(int band = start + 1; band < end + 1; band++) {
+                    for(IntegralImage table : tables) {
+                        if(table != null)
+                            table.addBandAbove(band, bands);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sums the values loaded into row y in place. If restart is true, the row above is ignored.
+     */
+    private void sumRow(int y, boolean restart) {
+        int[] totals = this.totals;
+        int above = y*stride + 1;
+        int current = above + stride;
+        totals[current - 1] = 0;
+        int t = 0;
+        if(restart) {
+            for(int x = 0; x < width; x++) {
+                t += totals[current + x];
+                totals[current + x] = t;
+            }
+        } else {
+            for(int x = 0; x < width; x++) {
+                t += totals[current + x];
+                totals[current + x] = totals[above + x] + t;
+            }
+        }
+    }
+
+    /**
+     * Adds the bottom row of every band to the bottom row of the band below it, in order.
+     */
+    private void carryBands(int bands) {
+        for(int band = 1; band < bands; band++) {
+            int above = (band * height / bands) * stride;
+            int bottom = ((band + 1) * height / bands) * stride;
+            for(int x = 1; x <= width; x++) {
+                totals[bottom + x] += totals[above + x];
+            }
+        }
+    }
+
+    /**
+     * Adds the bottom row of the band above to the other rows of the band.
+     */
+    private void addBandAbove(int band, int bands) {
+        int first = band * height / bands;
+        int last = (band + 1) * height / bands;
+        int above = first * stride;
+        for(int y = first + 1; y < last; y++) {
+            int current = y * stride;
+            for(int x = 1; x <= width; x++) {
+                totals[current + x] += totals[above + x];
+            }
+        }
+    }
+
+    /**
+     * @return true if the sum of a window of the given number of entries, each at most max, fits in an
+     *         int, so that the window can be read from an int table
+     */
+    public static boolean fits(long entries, long max) {
+        return entries * max <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the exact sum of all values, even if the entries of the table have wrapped around, as long
+     *         as every single value fits in an int
+     */
+    public long total() {
+        int[] totals = this.totals;
+        long total = 0;
+        for(int y = 0; y < height; y++) {
+            int above = y*stride;
+            int current = above + stride;
+            for(int x = 0; x < width; x++) {
+                total += totals[current + x + 1] - totals[current + x] - totals[above + x + 1] + totals[above + x];
+            }
+        }
+        return total;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1 + padding;
+        int size = (height + 1) * stride;
+        if(totals == null || totals.length < size) {
+            totals = new int[size];
+        } else {
+            for(int x = 0; x <= width; x++) {
+                totals[x] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the values in the rectangle [left, right) x [top, bottom)
+     */
+    public int window(int top, int left, int bottom, int right) {
+        int[] totals = this.totals;
+        int t = top*stride;
+        int b = bottom*stride;
+        return totals[b + right] + totals[t + left] - totals[t + right] - totals[b + left];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
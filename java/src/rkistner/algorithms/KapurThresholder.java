@@ -20,46 +20,49 @@ package rkistner.algorithms;
  * @author Ralf Kister <ralf.kistner@gmail.com>
  */
 public class KapurThresholder implements ThresholdFinder {
+    /**
+     * With p[i] = h[i] / total, the criterion for a class with count c and sum e of h[i] * log(h[i])
+     * reduces to log(c) - e / c plus terms that cancel out. The sums are kept as running totals over
+     * the lower class, so the threshold is found in linear time.
+     *
+     * The entropy of a class with a single non-empty bucket is exactly 0, which rounding errors
+     * would otherwise turn into a tiny positive or negative value.
+     */
     public int findThreshold(int[] h) {
         int n = h.length;
-        int total = 0;
-
-        for (int i = 0; i < n; i++) {
-            total += h[i];
-        }
-
-        double[] p = new double[n];
+        long total = 0;
+        double entropy = 0;
+        int buckets = 0;
         for (int i = 0; i < n; i++) {
-            p[i] = (double) h[i] / total;
+            if (h[i] > 0) {
+                total += h[i];
+                entropy += h[i] * Math.log(h[i]);
+                buckets++;
+            }
         }
-        
 
         double max = Double.MIN_VALUE;
         int best = 0;
+        long count1 = 0;
+        double entropy1 = 0;
+        int buckets1 = 0;
         for (int T = 1; T < n; T++) {
             // Separate into two clusters.
             // First is from 0 to T-1
             // Second is from T to n-1
-            double sum1a = 0;
-            double sum1b = 0;
-            for(int i = 0; i < T; i++) {
-                if(p[i] > 0) {
-                    sum1a += p[i];
-                    sum1b += p[i] * Math.log(p[i]);
-                }
+            int c = h[T - 1];
+            if (c > 0) {
+                count1 += c;
+                entropy1 += c * Math.log(c);
+                buckets1++;
             }
+            long count2 = total - count1;
 
-            double sum2a = 0;
-            double sum2b = 0;
-            for(int i = T; i < n; i++) {
-                if(p[i] > 0) {
-                    sum2a += p[i];
-                    sum2b += p[i] * Math.log(p[i]);
-                }
-            }
+            // The criterion is not a number for an empty cluster
+            if (count1 == 0 || count2 == 0)
+                continue;
 
-
-            double theTotal = Math.log(sum1a) + Math.log(sum2a) - sum1b/sum1a - sum2b/sum2a;
+            double theTotal = classEntropy(count1, entropy1, buckets1) + classEntropy(count2, entropy - entropy1, buckets - buckets1);
 
             if (theTotal > max) {
                 max = theTotal;
@@ -69,6 +72,16 @@ public class KapurThresholder implements ThresholdFinder {
         return best;
     }
 
+    private static double classEntropy(long count, double entropy, int buckets) {
+        if (buckets == 1)
+            return 0;
+        return Math.log(count) - entropy / count;
+    }
+
+    public int findThreshold(HistogramStats stats) {
+        return findThreshold(stats.getHistogram());
+    }
+
     public String toString() {
         return "Kapur";
     }
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+/**
+ * The inner loops shared by the binarizers, working on unsigned luminance bytes.
+ *
+ * This class is the scalar implementation, and the default. Setting the system property
+ * rkistner.kernels to "vector" selects VectorKernels instead, which is built from java/vector and gives
+ * identical results, if the JVM has the jdk.incubator.vector module and 256 bit vectors. It is faster
+ * for the sliding window sums, but not for every binarizer, so compare them with KernelBenchmark first.
+ *
+ * Masks have bit i set for pixel offset + i, which is the layout of a word in BitMatrix and BitArray.
+ * The scalar masks are assembled without branches, since whether a pixel is black is unpredictable.
+ */
+public class Kernels {
+    private static final Kernels SCALAR = new Kernels();
+    private static final Kernels DEFAULT = load();
+
+    private static Kernels load() {
+        if(!"vector".equals(System.getProperty("rkistner.kernels")))
+            return SCALAR;
+        try {
+            Class<?> type = Class.forName("rkistner.algorithms.VectorKernels");
+            Kernels kernels = (Kernels) type.getMethod("create").invoke(null);
+            if(kernels != null)
+                return kernels;
+        } catch(ClassNotFoundException e) {
+            // Not built
+        } catch(LinkageError e) {
+            // Built, but the module is not available at runtime
+        } catch(Exception e) {
+            // Not usable on this JVM
+        }
+        return SCALAR;
+    }
+
+    /**
+     * @return the implementation selected by the rkistner.kernels system property
+     */
+    public static Kernels get() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the scalar implementation
+     */
+    public static Kernels scalar() {
+        return SCALAR;
+    }
+
+    Kernels() {
+    }
+
+    /**
+     * Adds length unsigned bytes from src to dst.
+     */
+    public void addWidened(byte[] src, int offset, int[] dst, int dstOffset, int length) {
+        for(int i = 0; i < length; i++) {
+            dst[dstOffset + i] += src[offset + i] & 0xff;
+        }
+    }
+
+    /**
+     * Subtracts length unsigned bytes from src from dst.
+     */
+    public void subtractWidened(byte[] src, int offset, int[] dst, int dstOffset, int length) {
+        for(int i = 0; i < length; i++) {
+            dst[dstOffset + i] -= src[offset + i] & 0xff;
+        }
+    }
+
+    /**
+     * Adds the sums of count consecutive blocks of bs unsigned bytes from src to dst.
+     */
+    public void addBlockSums(byte[] src, int offset, int bs, int count, int[] dst, int dstOffset) {
+        for(int i = 0; i < count; i++) {
+            int t = 0;
+            int end = offset + bs;
+            for(; offset < end; offset++) {
+                t += src[offset] & 0xff;
+            }
+            dst[dstOffset + i] += t;
+        }
+    }
+
+    /**
+     * Stores the sums of the squares of count consecutive blocks of bs x bs unsigned bytes to dst. The
+     * rows of the blocks start at offset, and are stride bytes apart.
+     */
+    public void sumBlockSquares(byte[] src, int offset, int stride, int bs, int count, int[] dst, int dstOffset) {
+        for(int i = 0; i < count; i++) {
+            int t = 0;
+            for(int y = 0; y < bs; y++) {
+                int start = offset + y*stride + i*bs;
+                int end = start + bs;
+                for(int j = start; j < end; j++) {
+                    int v = src[j] & 0xff;
+                    t += v*v;
+                }
+            }
+            dst[dstOffset + i] = t;
+        }
+    }
+
+    /**
+     * @param length the number of pixels, at most 32
+     * @return the mask of the pixels that are below threshold
+     */
+    public int compare(byte[] src, int offset, int length, int threshold) {
+        int mask = 0;
+        for(int i = 0; i < length; i++) {
+            mask |= (((src[offset + i] & 0xff) - threshold) >>> 31) << i;
+        }
+        return mask;
+    }
+
+    /**
+     * @param length the number of pixels, at most 32
+     * @return the mask of the pixels that are below their own threshold in thresholds
+     */
+    public int compare(byte[] src, int offset, int length, int[] thresholds, int thresholdOffset) {
+        int mask = 0;
+        for(int i = 0; i < length; i++) {
+            mask |= (((src[offset + i] & 0xff) - thresholds[thresholdOffset + i]) >>> 31) << i;
+        }
+        return mask;
+    }
+
+    public String toString() {
+        return "scalar";
+    }
+}
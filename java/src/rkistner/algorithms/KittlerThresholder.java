@@ -25,50 +25,34 @@ package rkistner.algorithms;
  */
 public class KittlerThresholder implements ThresholdFinder {
     public int findThreshold(int[] h) {
-        int N = h.length;
-        int H = 0;
-        int M = 0;
-        for (int i = 0; i < N; i++) {
-            H += h[i];
-            M += i * h[i];
-        }
+        return findThreshold(new HistogramStats().compute(h));
+    }
+
+    /**
+     * The class variances are found from the prefix sums of the histogram, so every candidate is
+     * evaluated in constant time.
+     */
+    public int findThreshold(HistogramStats stats) {
+        int N = stats.getSize();
+        long H = stats.getTotal();
 
         double min = Float.MAX_VALUE;
         int best = 0;
-        int Hf = 0;
-        int Mf = 0;
         for (int T = 1; T < N; T++) {
             // Separate into two clusters.
             // First is from 0 to T-1
             // Second is from T to n-1
-            Hf += h[T - 1];
-            int Hb = H - Hf;
-
-            Mf += (T - 1) * h[T - 1];
-            int Mb = M - Mf;
+            long Hf = stats.count(T);
+            long Hb = H - Hf;
 
             if (Hf == 0 || Hb == 0)
                 continue;
 
-            double mu_f = (double) Mf / Hf;
-            double mu_b = (double) Mb / Hb;
             double Pf = (double) Hf / H;
             double Pb = (double) Hb / H;
 
-
-            double var_f = 0;
-            for(int i = 0; i < T; i++) {
-                var_f += (i - mu_f)*(i - mu_f) * h[i];
-            }
-            var_f /= Hf;
-
-
-            double var_b = 0;
-            for(int i = T; i < N; i++) {
-                var_b += (i - mu_b)*(i - mu_b) * h[i];
-            }
-            var_b /= Hb;
-
+            double var_f = stats.variance(0, T);
+            double var_b = stats.variance(T, N);
 
             double J = 1 + Pf *Math.log(var_f) + Pb *Math.log(var_b) - 2* Pf *Math.log(Pf) - 2* Pb *Math.log(Pb);
 
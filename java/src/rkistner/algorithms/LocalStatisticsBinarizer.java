@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Thresholds every pixel from the mean and standard deviation of the window around it, as in the
+ * methods of Niblack and Sauvola.
+ *
+ * The window is a square with sides of a fraction of the smallest image dimension, like the one of
+ * SimpleWindowBinarizer. The sums of the values and of the squared values in a window are read from
+ * 64 bit summed-area tables, so the statistics take constant time per pixel and never overflow.
+ */
+public final class LocalStatisticsBinarizer extends Binarizer {
+    public static BinarizerFactory createFactory(final float fraction, final Rule rule) {
+        return createFactory(fraction, rule, null);
+    }
+
+    public static BinarizerFactory createFactory(final float fraction, final Rule rule, final ForkJoinPool pool) {
+        final Engine engine = new Engine(fraction, rule, pool);
+        return new BinarizerFactory() {
+            public Binarizer getBinarizer(LuminanceSource source) {
+                return new LocalStatisticsBinarizer(source, engine);
+            }
+
+            public String toString() {
+                return "LocalStatistics [" + fraction + "|" + rule + (pool != null ? "|parallel" : "") + "]";
+            }
+        };
+    }
+
+    /**
+     * Chooses the threshold of a pixel from the statistics of its window.
+     */
+    public interface Rule {
+        /**
+         * @return the threshold, where pixels below it are black
+         */
+        double threshold(double mean, double deviation);
+    }
+
+    /**
+     * Niblack's method: mean + k * deviation. k is usually around -0.2.
+     */
+    public static Rule niblack(final double k) {
+        return new Rule() {
+            public double threshold(double mean, double deviation) {
+                return mean + k * deviation;
+            }
+
+            public String toString() {
+                return "Niblack " + k;
+            }
+        };
+    }
+
+    /**
+     * Sauvola's method: mean * (1 + k * (deviation / range - 1)), which lowers the threshold in flat
+     * and dark windows such as shadows. k is usually from 0.2 to 0.5, and range is 128 for bytes.
+     */
+    public static Rule sauvola(final double k, final double range) {
+        return new Rule() {
+            public double threshold(double mean, double deviation) {
+                return mean * (1 + k * (deviation / range - 1));
+            }
+
+            public String toString() {
+                return "Sauvola " + k + "/" + range;
+            }
+        };
+    }
+
+    /**
+     * Binarizes with a fixed window fraction and rule. An engine can be shared between threads.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final LongIntegralImage totals = new LongIntegralImage();
+            final LongIntegralImage squares = new LongIntegralImage();
+            int[] pixelThresholds;
+
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
+
+        private final float fraction;
+        private final Rule rule;
+        private final ForkJoinPool pool;
+
+        public Engine(float fraction, Rule rule) {
+            this(fraction, rule, null);
+        }
+
+        /**
+         * @param pool if not null, the thresholding is split into bands of rows and run on this pool.
+         *             The result is identical.
+         */
+        public Engine(float fraction, Rule rule, ForkJoinPool pool) {
+            this.fraction = fraction;
+            this.rule = rule;
+            this.pool = pool;
+        }
+
+        private int radius(int width, int height) {
+            return (int)((Math.min(width, height) * fraction) / 2 + 1);
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        @Override
+        protected void binarize(LuminanceSource source, final BitMatrix matrix, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            final byte[] data = source.getMatrix();
+            final LongIntegralImage totals = scratch.totals.compute(data, width, height, scratch.squares);
+            final LongIntegralImage squares = scratch.squares;
+            final int r = radius(width, height);
+
+            Bands.run(pool, height, new Bands.Band() {
+                public void process(int start, int end) {
+                    int width = totals.getWidth();
+                    int[] thresholds = getScratch().pixelThresholds(width);
+                    for(int y = start; y < end; y++) {
+                        thresholds(totals, squares, r, y, thresholds);
+                        BitWriter.write(data, y*width, thresholds, matrix, y);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Calculates the threshold of every pixel in row y. A pixel is black if it is below the
+         * threshold chosen by the rule, which for whole pixel values is the same as being below the
+         * threshold rounded up.
+         */
+        private void thresholds(LongIntegralImage totals, LongIntegralImage squares, int r, int y, int[] thresholds) {
+            int width = totals.getWidth();
+            int height = totals.getHeight();
+            int top = Math.max(0, y - r + 1);
+            int bottom = Math.min(height, y + r);
+            for(int x = 0; x < width; x++) {
+                int left = Math.max(0, x - r + 1);
+                int right = Math.min(width, x + r);
+                double pixels = (bottom - top) * (right - left);
+                double mean = totals.window(top, left, bottom, right) / pixels;
+                double variance = squares.window(top, left, bottom, right) / pixels - mean*mean;
+                double deviation = variance > 0 ? Math.sqrt(variance) : 0;
+                thresholds[x] = (int) Math.ceil(rule.threshold(mean, deviation));
+            }
+        }
+    }
+
+    private final Engine engine;
+
+    // Used for rows only
+    private Engine.Scratch tables;
+    private byte[] rowData;
+
+    public LocalStatisticsBinarizer(LuminanceSource source, float fraction, Rule rule) {
+        this(source, new Engine(fraction, rule));
+    }
+
+    public LocalStatisticsBinarizer(LuminanceSource source, Engine engine) {
+        super(source);
+        this.engine = engine;
+    }
+
+    /**
+     * The tables are computed once for all rows.
+     */
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+
+        if(tables == null) {
+            tables = new Engine.Scratch();
+            tables.totals.compute(source.getMatrix(), width, height, tables.squares);
+        }
+        int[] thresholds = tables.pixelThresholds(width);
+        engine.thresholds(tables.totals, tables.squares, engine.radius(width, height), y, thresholds);
+
+        rowData = source.getRow(y, rowData);
+        BitWriter.write(rowData, 0, width, thresholds, row);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new LocalStatisticsBinarizer(source, engine);
+    }
+}
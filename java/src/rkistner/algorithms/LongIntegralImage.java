@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+/**
+ * A summed-area table with 64 bit entries, laid out like IntegralImage.
+ *
+ * An int table of squared bytes overflows for images of more than 33025 pixels, and windows can only
+ * be read from it because int addition wraps. The entries of this table never overflow, so the window
+ * sums are exact for any image.
+ */
+public final class LongIntegralImage {
+    private static final Kernels KERNELS = Kernels.get();
+
+    private int width;
+    private int height;
+    private int stride;
+    private long[] totals;
+    private int[] blocks;
+
+    /**
+     * Computes the table for width x height unsigned bytes, stored row by row, and if squares is not
+     * null, the table of their squared values as well, in a single pass over the bytes.
+     */
+    public LongIntegralImage compute(byte[] data, int width, int height, LongIntegralImage squares) {
+        resize(width, height);
+        long[] totals = this.totals;
+        int stride = this.stride;
+        long[] squareTotals = null;
+        if(squares != null) {
+            squares.resize(width, height);
+            squareTotals = squares.totals;
+        }
+        for(int y = 0; y < height; y++) {
+            int offset = y*width;
+            int above = y*stride + 1;
+            int current = above + stride;
+            totals[current - 1] = 0;
+            long t = 0;
+            if(squareTotals == null) {
+                for(int x = 0; x < width; x++) {
+                    t += data[offset + x] & 0xff;
+                    totals[current + x] = totals[above + x] + t;
+                }
+            } else {
+                squareTotals[current - 1] = 0;
+                long s = 0;
+                for(int x = 0; x < width; x++) {
+                    int v = data[offset + x] & 0xff;
+                    t += v;
+                    s += v*v;
+                    totals[current + x] = totals[above + x] + t;
+                    squareTotals[current + x] = squareTotals[above + x] + s;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Computes the table for width x height ints, stored row by row.
+     */
+    public LongIntegralImage compute(int[] data, int width, int height) {
+        resize(width, height);
+        long[] totals = this.totals;
+        int stride = this.stride;
+        for(int y = 0; y < height; y++) {
+            int offset = y*width;
+            int above = y*stride + 1;
+            int current = above + stride;
+            totals[current - 1] = 0;
+            long t = 0;
+            for(int x = 0; x < width; x++) {
+                t += data[offset + x];
+                totals[current + x] = totals[above + x] + t;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Computes the table of the sums of the bs x bs blocks of width x height unsigned bytes, stored
+     * row by row, and if squares is not null, the table of the sums of their squared values as well.
+     * Pixels to the right of and below the last whole block are ignored.
+     *
+     * The sums of a block row are accumulated in ints, which cannot overflow for blocks of up to
+     * 181 x 181 pixels.
+     */
+    public LongIntegralImage computeBlocks(byte[] data, int width, int height, int bs, LongIntegralImage squares) {
+        int aw = width / bs;
+        int ah = height / bs;
+        resize(aw, ah);
+        if(squares != null)
+            squares.resize(aw, ah);
+        if(blocks == null || blocks.length < aw)
+            blocks = new int[aw];
+        int[] blocks = this.blocks;
+        for(int by = 0; by < ah; by++) {
+            for(int bx = 0; bx < aw; bx++) {
+                blocks[bx] = 0;
+            }
+            for(int y = by*bs; y < (by+1)*bs; y++) {
+                KERNELS.addBlockSums(data, y*width, bs, aw, blocks, 0);
+            }
+            sumRow(by, blocks);
+            if(squares != null) {
+                KERNELS.sumBlockSquares(data, by*bs*width, width, bs, aw, blocks, 0);
+                squares.sumRow(by, blocks);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sums the values of row y into the table.
+     */
+    private void sumRow(int y, int[] values) {
+        long[] totals = this.totals;
+        int above = y*stride + 1;
+        int current = above + stride;
+        totals[current - 1] = 0;
+        long t = 0;
+        for(int x = 0; x < width; x++) {
+            t += values[x];
+            totals[current + x] = totals[above + x] + t;
+        }
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int size = (height + 1) * stride;
+        if(totals == null || totals.length < size) {
+            totals = new long[size];
+        } else {
+            for(int x = 0; x <= width; x++) {
+                totals[x] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the values in the rectangle [left, right) x [top, bottom)
+     */
+    public long window(int top, int left, int bottom, int right) {
+        long[] totals = this.totals;
+        int t = top*stride;
+        int b = bottom*stride;
+        return totals[b + right] + totals[t + left] - totals[t + right] - totals[b + left];
+    }
+
+    /**
+     * @return the sum of the values in the rectangle [0, x) x [0, y)
+     */
+    public long get(int x, int y) {
+        return totals[y*stride + x];
+    }
+
+    /**
+     * @return the sum of all values
+     */
+    public long total() {
+        return get(width, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
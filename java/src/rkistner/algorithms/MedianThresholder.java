@@ -21,20 +21,11 @@ package rkistner.algorithms;
  */
 public class MedianThresholder implements ThresholdFinder {
     public int findThreshold(int[] buckets) {
-        int numBuckets = buckets.length;
-        int total = 0;
-        for (int x = 0; x < numBuckets; x++) {
-            total += buckets[x];
-        }
+        return findThreshold(new HistogramStats().compute(buckets));
+    }
 
-        int count = 0;
-        for (int x = 0; x < numBuckets; x++) {
-            count += buckets[x];
-            if (count * 2 >= total) {
-                return x;
-            }
-        }
-        return buckets.length - 1;
+    public int findThreshold(HistogramStats stats) {
+        return stats.median();
     }
 
     public String toString() {
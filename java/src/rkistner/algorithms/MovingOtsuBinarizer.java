@@ -27,9 +27,10 @@ import com.google.zxing.common.BitMatrix;
  */
 public class MovingOtsuBinarizer extends Binarizer {
     public static BinarizerFactory createFactory(final int blockRadius) {
+        final Engine engine = new Engine(blockRadius);
         return new BinarizerFactory() {
             public Binarizer getBinarizer(LuminanceSource source) {
-                return new MovingOtsuBinarizer(source, blockRadius);
+                return new MovingOtsuBinarizer(source, engine);
             }
 
             public String toString() {
@@ -38,97 +39,191 @@ public class MovingOtsuBinarizer extends Binarizer {
         };
     }
 
-    private int blockRadius;
-    private int[][] totals;
+    /**
+     * Binarizes with a fixed block radius. An engine can be shared between threads.
+     *
+     * The black point is found by Otsu's method from the same rows of the normalized image that a
+     * GlobalBinarizer would sample, and only those rows are normalized for it. The image is then
+     * normalized and thresholded a row at a time, so the normalized image is never stored.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final IntegralImage totals = new IntegralImage();
+            byte[] normalized;
+            NormalizedSource normalizedSource;
+        }
 
-    public MovingOtsuBinarizer(LuminanceSource source, int blockRadius) {
-        super(source);
-        this.blockRadius = blockRadius;
-    }
-
-    @Override
-    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
-        return null;
-    }
-
-    private void calculateTotals() {
-        if(totals == null) {
-            LuminanceSource source = getLuminanceSource();
-            int width = source.getWidth();
-            int height = source.getHeight();
-            totals = new int[height + 1][width + 1];
-            int[][] rowTotals = new int[height][];
-            byte[] rowData = new byte[width];
-            for(int y = 0; y < height; y++) {
-                int[] row = new int[width + 1];
-                rowData = source.getRow(y, rowData);
-                int t = 0;
-                row[0] = t;
-                for(int x = 0; x < width; x++) {
-                    t += (rowData[x] & 0xff);
-                    row[x + 1] = t;
-                }
-                rowTotals[y] = row;
-            }
-            totals[0] = new int[width + 1];
-            for(int x = 0; x <= width; x++) {
-                int t = 0;
-                for(int y = 0; y < height; y++) {
-                    t += rowTotals[y][x];
-                    totals[y + 1][x] = t;
-                }
-            }
+        private final int blockRadius;
+        private final GlobalBinarizer.Engine otsu = new GlobalBinarizer.Engine(new OtsuThresholder());
 
+        public Engine(int blockRadius) {
+            this.blockRadius = blockRadius;
         }
-    }
 
-    @Override
-    public BitMatrix getBlackMatrix() throws NotFoundException {
-        calculateTotals();
-        LuminanceSource source = getLuminanceSource();
-        final int width = source.getWidth();
-        final int height = source.getHeight();
-        BitMatrix matrix = new BitMatrix(width, height);
-        final byte[] resultData = new byte[width*height];
-
-        byte[] rowData = new byte[width];
-        for(int y = 0; y < height; y++) {
-            rowData = source.getRow(y, rowData);
+        /**
+         * Shifts each pixel of row y so that the average of its surrounding block maps to 128, and
+         * stores the row at result[resultOffset]. The image is width x height bytes, stored row by row
+         * in data.
+         */
+        private void normalizeRow(IntegralImage totals, int y, byte[] data, byte[] result, int resultOffset) {
+            int width = totals.getWidth();
+            int height = totals.getHeight();
+            int offset = y*width;
             for(int x = 0; x < width; x++) {
                 int top = Math.max(0, y - blockRadius + 1);
                 int left = Math.max(0, x - blockRadius + 1);
                 int bottom = Math.min(height, y + blockRadius);
                 int right = Math.min(width, x + blockRadius);
-                int block = totals[bottom][right] + totals[top][left] - totals[top][right] - totals[bottom][left];
+                int block = totals.window(top, left, bottom, right);
                 int pixels = (bottom - top) * (right - left);
                 int avg = block / pixels;
 
-                int r = (rowData[x] & 0xff) + 128 - avg;
-                resultData[y*width + x] = (byte)r;
+                int r = (data[offset + x] & 0xff) + 128 - avg;
+                result[resultOffset + x] = (byte)r;
             }
         }
 
+        /**
+         * @return the black point of the normalized image
+         */
+        private int getBlackPoint(NormalizedSource normalizedSource) {
+            return otsu.getBlackPoint(normalizedSource, 0, 0, normalizedSource.getWidth(), normalizedSource.getHeight(), otsu.getScratch());
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
 
-        LuminanceSource newSource = new LuminanceSource(width, height) {
-            @Override
-            public byte[] getRow(int y, byte[] row) {
-                if(row.length < width)
-                    row = new byte[width];
-                System.arraycopy(resultData, y*width, row, 0, width);
-                return row;
+        @Override
+        protected void binarize(LuminanceSource source, BitMatrix matrix, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            byte[] data = source.getMatrix();
+            IntegralImage totals = scratch.totals.compute(data, width, height);
+
+            NormalizedSource normalizedSource = scratch.normalizedSource;
+            if(normalizedSource == null || normalizedSource.getWidth() != width || normalizedSource.getHeight() != height) {
+                normalizedSource = new NormalizedSource(this, width, height);
+                scratch.normalizedSource = normalizedSource;
+                scratch.normalized = new byte[width];
             }
+            normalizedSource.setImage(data, totals);
+            int blackPoint = getBlackPoint(normalizedSource);
+            normalizedSource.setImage(null, null);
 
-            @Override
-            public byte[] getMatrix() {
-                return resultData;
+            byte[] normalized = scratch.normalized;
+            for(int y = 0; y < height; y++) {
+                normalizeRow(totals, y, data, normalized, 0);
+                BitWriter.write(normalized, 0, blackPoint, matrix, y);
             }
-        };
-        return new GlobalBinarizer(newSource, new OtsuThresholder()).getBlackMatrix();
+        }
+    }
+
+    /**
+     * A view of an image normalized by an engine, that normalizes rows as they are requested. The whole
+     * image is only normalized if a sampler asks for the matrix, into an array that is kept for the
+     * following images.
+     */
+    private static final class NormalizedSource extends LuminanceSource {
+        private final Engine engine;
+        private byte[] data;
+        private IntegralImage totals;
+        private byte[] matrix;
+        private boolean normalized;
+
+        NormalizedSource(Engine engine, int width, int height) {
+            super(width, height);
+            this.engine = engine;
+        }
+
+        void setImage(byte[] data, IntegralImage totals) {
+            this.data = data;
+            this.totals = totals;
+            this.normalized = false;
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            if(row == null || row.length < getWidth())
+                row = new byte[getWidth()];
+            engine.normalizeRow(totals, y, data, row, 0);
+            return row;
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            int width = getWidth();
+            int height = getHeight();
+            if(matrix == null)
+                matrix = new byte[width * height];
+            if(!normalized) {
+                for(int y = 0; y < height; y++) {
+                    engine.normalizeRow(totals, y, data, matrix, y * width);
+                }
+                normalized = true;
+            }
+            return matrix;
+        }
+    }
+
+    private final Engine engine;
+
+    // Used for rows only
+    private IntegralImage totals;
+    private byte[] data;
+    private int blackPoint = -1;
+    private byte[] normalized;
+
+    public MovingOtsuBinarizer(LuminanceSource source, int blockRadius) {
+        this(source, new Engine(blockRadius));
+    }
+
+    public MovingOtsuBinarizer(LuminanceSource source, Engine engine) {
+        super(source);
+        this.engine = engine;
+    }
+
+    /**
+     * The black point is found from the same rows of the normalized image that getBlackMatrix()
+     * samples, so only those rows and the requested row are normalized.
+     */
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+
+        if(totals == null) {
+            data = source.getMatrix();
+            totals = new IntegralImage().compute(data, width, height);
+        }
+        if(blackPoint < 0) {
+            NormalizedSource normalizedSource = new NormalizedSource(engine, width, height);
+            normalizedSource.setImage(data, totals);
+            blackPoint = engine.getBlackPoint(normalizedSource);
+        }
+
+        if(normalized == null)
+            normalized = new byte[width];
+        engine.normalizeRow(totals, y, data, normalized, 0);
+        BitWriter.write(normalized, 0, width, blackPoint, row);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
     }
 
     @Override
     public Binarizer createBinarizer(LuminanceSource source) {
-        return new MovingOtsuBinarizer(source, blockRadius);
+        return new MovingOtsuBinarizer(source, engine);
     }
 
 }
@@ -26,27 +26,25 @@ package rkistner.algorithms;
 public class OtsuThresholder implements ThresholdFinder {
 
     public int findThreshold(int[] h) {
-        int N = h.length;
-        int H = 0;
-        int M = 0;
-        for (int i = 0; i < N; i++) {
-            H += h[i];
-            M += i * h[i];
-        }
+        return findThreshold(new HistogramStats().compute(h));
+    }
+
+    public int findThreshold(HistogramStats stats) {
+        int N = stats.getSize();
+        long H = stats.getTotal();
+        long M = stats.moment(N);
 
         float max = 0f;
         int best = 0;
-        int Hf = 0;
-        int Mf = 0;
         for (int T = 1; T < N; T++) {
             // Separate into two clusters.
             // First is from 0 to T-1
             // Second is from T to N-1
-            Hf += h[T - 1];
-            int Hb = H - Hf;
-            
-            Mf += (T - 1) * h[T - 1];
-            int Mb = M - Mf;
+            long Hf = stats.count(T);
+            long Hb = H - Hf;
+
+            long Mf = stats.moment(T);
+            long Mb = M - Mf;
 
             if (Hf == 0 || Hb == 0)
                 continue;
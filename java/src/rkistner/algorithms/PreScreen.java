@@ -0,0 +1,165 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+import java.util.Arrays;
+
+/**
+ * Rejects frames that are unlikely to contain a readable barcode, such as blank, blurred or nearly
+ * uniform frames, before they are binarized and decoded.
+ *
+ * A few evenly spaced rows are sampled. The contrast is the spread between the darkest and brightest
+ * few percent of the samples, the deviation is their standard deviation, and the edge density is the
+ * fraction of neighbouring samples that differ by at least the edge step. A frame is rejected if any
+ * of them is below its minimum. A minimum of 0 disables that test.
+ *
+ * A pre-screen can be shared between threads. The histogram and row buffer are kept per thread.
+ */
+public final class PreScreen {
+    /**
+     * The statistics of a frame.
+     */
+    public static final class Statistics {
+        private final int contrast;
+        private final float deviation;
+        private final float edgeDensity;
+
+        Statistics(int contrast, float deviation, float edgeDensity) {
+            this.contrast = contrast;
+            this.deviation = deviation;
+            this.edgeDensity = edgeDensity;
+        }
+
+        public int getContrast() {
+            return contrast;
+        }
+
+        public float getDeviation() {
+            return deviation;
+        }
+
+        public float getEdgeDensity() {
+            return edgeDensity;
+        }
+
+        public String toString() {
+            return contrast + "|" + deviation + "|" + edgeDensity;
+        }
+    }
+
+    private static final class Scratch {
+        final int[] histogram = new int[256];
+        byte[] row;
+    }
+
+    private static final int ROWS = 16;
+    // The fraction of the samples ignored at either end of the histogram for the contrast, in percent
+    private static final int TAIL = 2;
+
+    private final int minContrast;
+    private final float minDeviation;
+    private final int edgeStep;
+    private final float minEdgeDensity;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Rejects frames with a contrast below 24, a deviation below 8, or fewer than 1 in 500 neighbouring
+     * samples differing by 32 or more.
+     */
+    public PreScreen() {
+        this(24, 8, 32, 0.002f);
+    }
+
+    public PreScreen(int minContrast, float minDeviation, int edgeStep, float minEdgeDensity) {
+        this.minContrast = minContrast;
+        this.minDeviation = minDeviation;
+        this.edgeStep = edgeStep;
+        this.minEdgeDensity = minEdgeDensity;
+    }
+
+    /**
+     * @return true if the frame should be binarized and decoded
+     */
+    public boolean accept(LuminanceSource source) {
+        return accept(measure(source));
+    }
+
+    public boolean accept(Statistics statistics) {
+        return statistics.contrast >= minContrast
+                && statistics.deviation >= minDeviation
+                && statistics.edgeDensity >= minEdgeDensity;
+    }
+
+    /**
+     * @return the statistics of the sampled rows of the frame
+     */
+    public Statistics measure(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Scratch scratch = this.scratch.get();
+        int[] histogram = scratch.histogram;
+        Arrays.fill(histogram, 0);
+        if(scratch.row == null || scratch.row.length < width)
+            scratch.row = new byte[width];
+        byte[] row = scratch.row;
+        long sum = 0;
+        long squares = 0;
+        int samples = 0;
+        int edges = 0;
+        int pairs = 0;
+        for(int i = 0; i < ROWS; i++) {
+            int y = (2*i + 1) * height / (2*ROWS);
+            row = source.getRow(y, scratch.row);
+            int previous = row[0] & 0xff;
+            for(int x = 0; x < width; x++) {
+                int v = row[x] & 0xff;
+                histogram[v]++;
+                sum += v;
+                squares += v*v;
+                edges += (edgeStep - 1 - Math.abs(v - previous)) >>> 31;
+                previous = v;
+            }
+            samples += width;
+            pairs += width - 1;
+        }
+        if(samples == 0)
+            return new Statistics(0, 0, 0);
+
+        int tail = samples * TAIL / 100;
+        int low = 0;
+        for(int count = histogram[0]; count <= tail && low < 255; count += histogram[++low]);
+        int high = 255;
+        for(int count = histogram[255]; count <= tail && high > 0; count += histogram[--high]);
+
+        double mean = (double) sum / samples;
+        double variance = (double) squares / samples - mean*mean;
+        float deviation = (float) Math.sqrt(Math.max(0, variance));
+        float edgeDensity = pairs == 0 ? 0 : (float) edges / pairs;
+        return new Statistics(Math.max(0, high - low), deviation, edgeDensity);
+    }
+
+    public String toString() {
+        return "PreScreen [" + minContrast + "|" + minDeviation + "|" + edgeStep + "|" + minEdgeDensity + "]";
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A local average binarizer that computes its thresholds on a downsampled image.
+ *
+ * The image is halved a number of times with a 2 x 2 box filter. Every pixel of the smallest level
+ * gets the average of the window around it as its threshold, with the window a fraction of the
+ * smallest dimension like in SimpleWindowBinarizer. The thresholds of the full resolution pixels are
+ * interpolated bilinearly from those of the pixels of the smallest level, since the averages of large
+ * windows change slowly over the image.
+ */
+public final class PyramidBinarizer extends Binarizer {
+    public static BinarizerFactory createFactory(final int levels, final float fraction) {
+        return createFactory(levels, fraction, null);
+    }
+
+    public static BinarizerFactory createFactory(final int levels, final float fraction, final ForkJoinPool pool) {
+        final Engine engine = new Engine(levels, fraction, pool);
+        return new BinarizerFactory() {
+            public Binarizer getBinarizer(LuminanceSource source) {
+                return new PyramidBinarizer(source, engine);
+            }
+
+            public String toString() {
+                return "Pyramid [" + levels + "|" + fraction + (pool != null ? "|parallel" : "") + "]";
+            }
+        };
+    }
+
+    /**
+     * Binarizes with a fixed number of levels and window fraction. An engine can be shared between
+     * threads.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            byte[][] levels;
+            int coarseWidth;
+            int coarseHeight;
+            final IntegralImage totals = new IntegralImage();
+            final LongIntegralImage wideTotals = new LongIntegralImage();
+            int[] coarseThresholds;
+
+            // Used by every thread for its own rows. upper and lower hold coarse rows upperRow and
+            // lowerRow, interpolated between the columns, or -1 if they hold nothing yet.
+            int[] upper;
+            int[] lower;
+            int upperRow;
+            int lowerRow;
+            int[] pixelThresholds;
+
+            void beginRows(int width) {
+                if(upper == null || upper.length < width) {
+                    upper = new int[width];
+                    lower = new int[width];
+                }
+                upperRow = lowerRow = -1;
+            }
+
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
+
+        private final int levels;
+        private final float fraction;
+        private final ForkJoinPool pool;
+
+        public Engine(int levels, float fraction) {
+            this(levels, fraction, null);
+        }
+
+        /**
+         * @param levels the number of times the image is halved, from 1 to 4
+         * @param pool if not null, the rows are interpolated and written in bands on this pool. The
+         *             result is identical.
+         */
+        public Engine(int levels, float fraction, ForkJoinPool pool) {
+            if(levels < 1 || levels > 4)
+                throw new IllegalArgumentException("Levels must be from 1 to 4: " + levels);
+            this.levels = levels;
+            this.fraction = fraction;
+            this.pool = pool;
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        @Override
+        protected void binarize(LuminanceSource source, final BitMatrix matrix, final Scratch scratch) {
+            final int width = source.getWidth();
+            final int height = source.getHeight();
+            final byte[] data = source.getMatrix();
+            coarseThresholds(data, width, height, scratch);
+
+            Bands.run(pool, height, new Bands.Band() {
+                public void process(int start, int end) {
+                    Scratch local = getScratch();
+                    int[] thresholds = local.pixelThresholds(width);
+                    local.beginRows(width);
+                    for(int y = start; y < end; y++) {
+                        interpolate(scratch, y, width, local, thresholds);
+                        BitWriter.write(data, y*width, thresholds, matrix, y);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Builds the levels of the image and calculates the thresholds of the smallest level.
+         */
+        private void coarseThresholds(byte[] data, int width, int height, Scratch scratch) {
+            if(scratch.levels == null)
+                scratch.levels = new byte[levels][];
+            byte[] level = data;
+            int w = width;
+            int h = height;
+            for(int i = 0; i < levels; i++) {
+                int halfWidth = (w + 1) / 2;
+                int halfHeight = (h + 1) / 2;
+                if(scratch.levels[i] == null || scratch.levels[i].length < halfWidth*halfHeight)
+                    scratch.levels[i] = new byte[halfWidth*halfHeight];
+                halve(level, w, h, scratch.levels[i]);
+                level = scratch.levels[i];
+                w = halfWidth;
+                h = halfHeight;
+            }
+            scratch.coarseWidth = w;
+            scratch.coarseHeight = h;
+
+            if(scratch.coarseThresholds == null || scratch.coarseThresholds.length < w*h)
+                scratch.coarseThresholds = new int[w*h];
+            int[] thresholds = scratch.coarseThresholds;
+            int r = (int)((Math.min(w, h) * fraction) / 2 + 1);
+            boolean narrow = IntegralImage.fits((long) Math.min(w, 2*r - 1) * Math.min(h, 2*r - 1), 255);
+            IntegralImage totals = narrow ? scratch.totals.compute(level, w, h) : null;
+            LongIntegralImage wideTotals = narrow ? null : scratch.wideTotals.compute(level, w, h, null);
+            for(int y = 0; y < h; y++) {
+                int top = Math.max(0, y - r + 1);
+                int bottom = Math.min(h, y + r);
+                for(int x = 0; x < w; x++) {
+                    int left = Math.max(0, x - r + 1);
+                    int right = Math.min(w, x + r);
+                    int pixels = (bottom - top) * (right - left);
+                    if(narrow)
+                        thresholds[y*w + x] = totals.window(top, left, bottom, right) / pixels;
+                    else
+                        thresholds[y*w + x] = (int) (wideTotals.window(top, left, bottom, right) / pixels);
+                }
+            }
+        }
+
+        /**
+         * Halves the w x h image src into dst, averaging every 2 x 2 box of pixels. The boxes at the
+         * right and bottom edges of images with an odd size are only the pixels that exist.
+         */
+        private static void halve(byte[] src, int w, int h, byte[] dst) {
+            int halfWidth = (w + 1) / 2;
+            int halfHeight = (h + 1) / 2;
+            for(int y = 0; y < halfHeight; y++) {
+                int top = 2*y*w;
+                int bottom = 2*y + 1 < h ? top + w : top;
+                int offset = y*halfWidth;
+                for(int x = 0; x < w / 2; x++) {
+                    int sum = (src[top + 2*x] & 0xff) + (src[top + 2*x + 1] & 0xff)
+                            + (src[bottom + 2*x] & 0xff) + (src[bottom + 2*x + 1] & 0xff);
+                    dst[offset + x] = (byte) ((sum + 2) >> 2);
+                }
+                if((w & 1) != 0) {
+                    int sum = (src[top + w - 1] & 0xff) + (src[bottom + w - 1] & 0xff);
+                    dst[offset + halfWidth - 1] = (byte) ((sum + 1) >> 1);
+                }
+            }
+        }
+
+        /**
+         * The centres of coarse pixels are 2 << levels apart in units of half a full resolution pixel.
+         *
+         * @return the position of the centre of full resolution pixel i relative to the centre of the
+         *         first coarse pixel, in those units, clamped to the centres of the first and last
+         *         coarse pixels of the size
+         */
+        private int position(int i, int size) {
+            int scale = 2 << levels;
+            int position = 2*i + 1 - (1 << levels);
+            return Math.max(0, Math.min((size - 1) * scale, position));
+        }
+
+        /**
+         * Interpolates the thresholds of row y between the two coarse rows around it. Those rows are
+         * interpolated between the columns once, and kept in local for the following rows.
+         */
+        private void interpolate(Scratch scratch, int y, int width, Scratch local, int[] thresholds) {
+            int scale = 2 << levels;
+            int position = position(y, scratch.coarseHeight);
+            int cy = position >> (levels + 1);
+            int weight = position & (scale - 1);
+            int below = weight == 0 ? cy : cy + 1;
+
+            if(cy != local.upperRow) {
+                if(cy == local.lowerRow) {
+                    int[] swap = local.upper;
+                    local.upper = local.lower;
+                    local.lower = swap;
+                    local.lowerRow = -1;
+                } else {
+                    interpolateRow(scratch, cy, width, local.upper);
+                }
+                local.upperRow = cy;
+            }
+            if(below != local.lowerRow) {
+                interpolateRow(scratch, below, width, local.lower);
+                local.lowerRow = below;
+            }
+
+            int[] upper = local.upper;
+            int[] lower = local.lower;
+            int shift = 2*(levels + 1);
+            int half = 1 << (shift - 1);
+            for(int x = 0; x < width; x++) {
+                thresholds[x] = (upper[x] * (scale - weight) + lower[x] * weight + half) >> shift;
+            }
+        }
+
+        /**
+         * Interpolates coarse row cy between the columns, scaled by 2 << levels.
+         *
+         * Between the centres of two coarse columns, the threshold grows by the same step for every
+         * pixel, so the thresholds are accumulated instead of interpolated one by one.
+         */
+        private void interpolateRow(Scratch scratch, int cy, int width, int[] result) {
+            int w = scratch.coarseWidth;
+            int[] coarse = scratch.coarseThresholds;
+            int row = cy*w;
+            int scale = 2 << levels;
+            int offset = 1 << levels;
+            int last = (w - 1) * scale;
+            int x = 0;
+            while(x < width) {
+                int p = Math.max(0, 2*x + 1 - offset);
+                if(p >= last) {
+                    int value = coarse[row + w - 1] * scale;
+                    for(; x < width; x++) {
+                        result[x] = value;
+                    }
+                    break;
+                }
+                int column = p >> (levels + 1);
+                int end = 2*x + 1 - offset < 0 ? (offset + 1) / 2 : ((column + 1) * scale + offset) / 2;
+                int left = coarse[row + column];
+                int difference = coarse[row + column + 1] - left;
+                int value = left * scale + difference * (p - column * scale);
+                int step = 2*x + 1 - offset < 0 ? 0 : 2 * difference;
+                for(end = Math.min(end, width); x < end; x++) {
+                    result[x] = value;
+                    value += step;
+                }
+            }
+        }
+    }
+
+    private final Engine engine;
+
+    // Used for rows only
+    private Engine.Scratch coarse;
+    private byte[] rowData;
+
+    public PyramidBinarizer(LuminanceSource source, int levels, float fraction) {
+        this(source, new Engine(levels, fraction));
+    }
+
+    public PyramidBinarizer(LuminanceSource source, Engine engine) {
+        super(source);
+        this.engine = engine;
+    }
+
+    /**
+     * The coarse thresholds are calculated once for all rows.
+     */
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        LuminanceSource source = getLuminanceSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+
+        if(coarse == null) {
+            coarse = new Engine.Scratch();
+            engine.coarseThresholds(source.getMatrix(), width, height, coarse);
+            coarse.beginRows(width);
+        }
+        int[] thresholds = coarse.pixelThresholds(width);
+        engine.interpolate(coarse, y, width, coarse, thresholds);
+
+        rowData = source.getRow(y, rowData);
+        BitWriter.write(rowData, 0, width, thresholds, row);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new PyramidBinarizer(source, engine);
+    }
+}
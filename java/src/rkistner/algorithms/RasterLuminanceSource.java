@@ -0,0 +1,219 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+import java.awt.image.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A LuminanceSource that reads the data buffer of a BufferedImage directly, instead of converting
+ * every pixel through getRGB() like BufferedImageLuminanceSource.
+ *
+ * Gray images are passed through as they are stored. If the raster is not a part of a larger one,
+ * getMatrix() returns the data of the image itself, without copying it. These luminances differ from
+ * those of BufferedImageLuminanceSource, which converts the linear gray of the image to sRGB first.
+ *
+ * Byte BGR(A) and int (A)RGB images are converted with lookup tables, using the same integer weights
+ * as BufferedImageLuminanceSource, so the luminances are identical. Other types of images fall back to
+ * getRGB().
+ *
+ * The matrix is converted once, when it is first requested, and rows are converted as they are
+ * requested until then. The matrix that is returned must not be modified. A source can be read from
+ * several threads at the same time.
+ */
+public final class RasterLuminanceSource extends LuminanceSource {
+    private static final int GRAY = 0;
+    private static final int BYTES = 1;
+    private static final int INTS = 2;
+    private static final int RGB = 3;
+
+    // Luminance = (306*r + 601*g + 117*b + 512) >> 10, with the rounding folded into the blue table
+    private static final int[] RED = new int[256];
+    private static final int[] GREEN = new int[256];
+    private static final int[] BLUE = new int[256];
+
+    static {
+        for(int i = 0; i < 256; i++) {
+            RED[i] = 306 * i;
+            GREEN[i] = 601 * i;
+            BLUE[i] = 117 * i + 512;
+        }
+    }
+
+    private final BufferedImage image;
+    private final ForkJoinPool pool;
+    private final int layout;
+    private final byte[] bytes;
+    private final int[] ints;
+    // The index of the first pixel in the data buffer, the distance between rows and between pixels
+    private final int offset;
+    private final int stride;
+    private final int pixelStride;
+    // The offsets of the red, green and blue bytes of a pixel, for BYTES only
+    private final int red;
+    private final int green;
+    private final int blue;
+
+    private volatile byte[] matrix;
+
+    public RasterLuminanceSource(BufferedImage image) {
+        this(image, null);
+    }
+
+    /**
+     * @param pool if not null, the matrix is converted in bands of rows on this pool
+     */
+    public RasterLuminanceSource(BufferedImage image, ForkJoinPool pool) {
+        super(image.getWidth(), image.getHeight());
+        this.image = image;
+        this.pool = pool;
+
+        WritableRaster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        DataBuffer buffer = raster.getDataBuffer();
+        int type = image.getType();
+        int x = -raster.getSampleModelTranslateX();
+        int y = -raster.getSampleModelTranslateY();
+
+        if((type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && model instanceof ComponentSampleModel && buffer instanceof DataBufferByte) {
+            ComponentSampleModel components = (ComponentSampleModel) model;
+            int[] bands = components.getBandOffsets();
+            layout = type == BufferedImage.TYPE_BYTE_GRAY ? GRAY : BYTES;
+            bytes = ((DataBufferByte) buffer).getData();
+            ints = null;
+            stride = components.getScanlineStride();
+            pixelStride = components.getPixelStride();
+            offset = buffer.getOffset() + y * stride + x * pixelStride;
+            red = bands[0];
+            green = layout == GRAY ? bands[0] : bands[1];
+            blue = layout == GRAY ? bands[0] : bands[2];
+        } else if((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && model instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt) {
+            layout = INTS;
+            bytes = null;
+            ints = ((DataBufferInt) buffer).getData();
+            stride = ((SinglePixelPackedSampleModel) model).getScanlineStride();
+            pixelStride = 1;
+            offset = buffer.getOffset() + y * stride + x;
+            red = green = blue = 0;
+        } else {
+            layout = RGB;
+            bytes = null;
+            ints = null;
+            offset = stride = pixelStride = 0;
+            red = green = blue = 0;
+        }
+
+        int width = getWidth();
+        int height = getHeight();
+        if(layout == GRAY && offset == 0 && pixelStride == 1 && stride == width && bytes.length == width * height)
+            matrix = bytes;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if(y < 0 || y >= getHeight())
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        int width = getWidth();
+        if(row == null || row.length < width)
+            row = new byte[width];
+        byte[] local = matrix;
+        if(local != null)
+            System.arraycopy(local, y * width, row, 0, width);
+        else
+            convert(y, row, 0, null);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        byte[] local = matrix;
+        if(local == null) {
+            synchronized(this) {
+                local = matrix;
+                if(local == null) {
+                    final int width = getWidth();
+                    final byte[] result = new byte[width * getHeight()];
+                    Bands.run(pool, getHeight(), new Bands.Band() {
+                        public void process(int start, int end) {
+                            int[] rgb = layout == RGB ? new int[width] : null;
+                            for(int y = start; y < end; y++) {
+                                convert(y, result, y * width, rgb);
+                            }
+                        }
+                    });
+                    matrix = local = result;
+                }
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Converts row y into dst[dstOffset...].
+     *
+     * @param rgb a buffer of a row of pixels for getRGB(), or null
+     */
+    private void convert(int y, byte[] dst, int dstOffset, int[] rgb) {
+        int width = getWidth();
+        switch(layout) {
+            case GRAY: {
+                int start = offset + y * stride;
+                if(pixelStride == 1) {
+                    System.arraycopy(bytes, start + red, dst, dstOffset, width);
+                } else {
+                    for(int x = 0, i = start + red; x < width; x++, i += pixelStride) {
+                        dst[dstOffset + x] = bytes[i];
+                    }
+                }
+                break;
+            }
+            case BYTES: {
+                byte[] local = bytes;
+                int i = offset + y * stride;
+                for(int x = 0; x < width; x++, i += pixelStride) {
+                    int luminance = RED[local[i + red] & 0xff] + GREEN[local[i + green] & 0xff] + BLUE[local[i + blue] & 0xff];
+                    dst[dstOffset + x] = (byte) (luminance >> 10);
+                }
+                break;
+            }
+            case INTS: {
+                int[] local = ints;
+                int i = offset + y * stride;
+                for(int x = 0; x < width; x++, i++) {
+                    int pixel = local[i];
+                    int luminance = RED[(pixel >> 16) & 0xff] + GREEN[(pixel >> 8) & 0xff] + BLUE[pixel & 0xff];
+                    dst[dstOffset + x] = (byte) (luminance >> 10);
+                }
+                break;
+            }
+            default: {
+                if(rgb == null || rgb.length < width)
+                    rgb = new int[width];
+                image.getRGB(0, y, width, 1, rgb, 0, width);
+                for(int x = 0; x < width; x++) {
+                    int pixel = rgb[x];
+                    int luminance = RED[(pixel >> 16) & 0xff] + GREEN[(pixel >> 8) & 0xff] + BLUE[pixel & 0xff];
+                    dst[dstOffset + x] = (byte) (luminance >> 10);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Samples the middle three fifths of a few evenly spaced rows. With four rows, this is the sample
+ * of the ZXing GlobalHistogramBinarizer, which proved to be more robust on the blackbox tests than
+ * sampling a diagonal. It is fast, but can miss small barcodes in large images.
+ */
+public class RowSampler implements HistogramSampler {
+    private final int rows;
+
+    public RowSampler(int rows) {
+        this.rows = rows;
+    }
+
+    public void sample(LuminanceSource source, int left, int top, int width, int height, int shift, int[] histogram, byte[] row) {
+        int right = left + (width << 2) / 5;
+        for (int y = 1; y <= rows; y++) {
+            byte[] luminances = source.getRow(top + height * y / (rows + 1), row);
+            for (int x = left + width / 5; x < right; x++) {
+                histogram[(luminances[x] & 0xff) >> shift]++;
+            }
+        }
+    }
+
+    public long cost(int width, int height) {
+        return (long) rows * ((width << 2) / 5 - width / 5);
+    }
+
+    public String toString() {
+        return "rows " + rows;
+    }
+}
@@ -27,59 +27,264 @@ import com.google.zxing.common.BitMatrix;
  */
 public class SimpleWindowBinarizer extends Binarizer {
     public static BinarizerFactory createFactory(final float fraction) {
+        return createFactory(fraction, false);
+    }
+
+    public static BinarizerFactory createFactory(final float fraction, final boolean streaming) {
+        final Engine engine = new Engine(fraction, streaming);
         return new BinarizerFactory() {
             public Binarizer getBinarizer(LuminanceSource source) {
-                return new SimpleWindowBinarizer(source, fraction);
+                return new SimpleWindowBinarizer(source, engine);
             }
 
             public String toString() {
-                return "SimpleWindow [" + fraction + "]";
+                return "SimpleWindow [" + fraction + (streaming ? "|streaming" : "") + "]";
             }
         };
     }
 
-    private float fraction;
+    /**
+     * Binarizes with a fixed window fraction. An engine can be shared between threads.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final IntegralImage totals = new IntegralImage();
+
+            // State of the sliding window used in streaming mode and for rows. columns[x] holds the sum
+            // of column x over the rows [removed, loaded) of source, which are kept in a ring buffer.
+            LuminanceSource source;
+            byte[][] rows;
+            int ringSize;
+            int[] columns;
+            // The prefix sums of columns. They are kept in widePrefix instead if the sums of a window
+            // do not fit in an int.
+            boolean narrow;
+            int[] prefix;
+            long[] widePrefix;
+            int loaded;
+            int removed;
+
+            int[] pixelThresholds;
+
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
+
+        private final float fraction;
+        private final boolean streaming;
+        private final Kernels kernels = Kernels.get();
+
+        /**
+         * @param streaming if true, the window sums are maintained over the rows currently in the
+         *                  window only, instead of over an integral image of the whole source. The
+         *                  result is identical, but memory use is proportional to the window height
+         *                  instead of the image size, and source rows are read in order one at a time.
+         */
+        public Engine(float fraction, boolean streaming) {
+            this.fraction = fraction;
+            this.streaming = streaming;
+        }
+
+        private int radius(int width, int height) {
+            return (int)((Math.min(width, height) * fraction) / 2 + 1);
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        /**
+         * @return true if the sums of the windows fit in an int
+         */
+        private static boolean fits(int width, int height, int r) {
+            return IntegralImage.fits((long) Math.min(width, 2*r - 1) * Math.min(height, 2*r - 1), 255);
+        }
+
+        /**
+         * Windows that do not fit in an int table are always summed in streaming mode, which keeps the
+         * row sums of the window in longs.
+         */
+        @Override
+        protected void binarize(LuminanceSource source, BitMatrix matrix, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int r = radius(width, height);
+            if(streaming || !fits(width, height, r)) {
+                binarizeStreaming(source, matrix, scratch);
+                return;
+            }
+            byte[] data = source.getMatrix();
+            IntegralImage totals = scratch.totals.compute(data, width, height);
+            int[] thresholds = scratch.pixelThresholds(width);
+            for(int y = 0; y < height; y++) {
+                int top = Math.max(0, y - r + 1);
+                int bottom = Math.min(height, y + r);
+                for(int x = 0; x < width; x++) {
+                    int left = Math.max(0, x - r + 1);
+                    int right = Math.min(width, x + r);
+                    int block = totals.window(top, left, bottom, right);
+                    int pixels = (bottom - top) * (right - left);
+                    thresholds[x] = block / pixels;
+                }
+                BitWriter.write(data, y*width, thresholds, matrix, y);
+            }
+        }
+
+        private void binarizeStreaming(LuminanceSource source, BitMatrix matrix, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int r = radius(width, height);
+            int[] thresholds = scratch.pixelThresholds(width);
+            scratch.source = null;
+            for(int y = 0; y < height; y++) {
+                slideTo(source, y, r, scratch);
+                averages(scratch, width, height, r, y, thresholds);
+                BitWriter.write(scratch.rows[y % scratch.ringSize], 0, thresholds, matrix, y);
+            }
+            scratch.source = null;
+        }
+
+        /**
+         * Calculates the average of the window of every pixel in row y from the prefix sums of the
+         * sliding window.
+         */
+        private static void averages(Scratch scratch, int width, int height, int r, int y, int[] thresholds) {
+            int top = Math.max(0, y - r + 1);
+            int bottom = Math.min(height, y + r);
+            if(scratch.narrow) {
+                int[] prefix = scratch.prefix;
+                for(int x = 0; x < width; x++) {
+                    int left = Math.max(0, x - r + 1);
+                    int right = Math.min(width, x + r);
+                    int pixels = (bottom - top) * (right - left);
+                    thresholds[x] = (prefix[right] - prefix[left]) / pixels;
+                }
+            } else {
+                long[] prefix = scratch.widePrefix;
+                for(int x = 0; x < width; x++) {
+                    int left = Math.max(0, x - r + 1);
+                    int right = Math.min(width, x + r);
+                    int pixels = (bottom - top) * (right - left);
+                    thresholds[x] = (int) ((prefix[right] - prefix[left]) / pixels);
+                }
+            }
+        }
+
+        /**
+         * Moves the sliding window so that it covers the rows needed for row y, and computes the
+         * prefix sums of the column totals for that window.
+         */
+        private void slideTo(LuminanceSource source, int y, int r, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int top = Math.max(0, y - r + 1);
+            int bottom = Math.min(height, y + r);
+            if(scratch.source != source) {
+                int ringSize = Math.min(height, 2 * r);
+                if(scratch.rows == null || scratch.rows.length < ringSize || scratch.columns.length < width) {
+                    scratch.rows = new byte[ringSize][width];
+                    scratch.columns = new int[width];
+                }
+                // Only the table in use is allocated, so the other may be missing or left from a
+                // smaller source
+                scratch.narrow = fits(width, height, r);
+                if(scratch.narrow && (scratch.prefix == null || scratch.prefix.length < width + 1))
+                    scratch.prefix = new int[width + 1];
+                if(!scratch.narrow && (scratch.widePrefix == null || scratch.widePrefix.length < width + 1))
+                    scratch.widePrefix = new long[width + 1];
+                scratch.ringSize = ringSize;
+                scratch.source = source;
+                scratch.loaded = scratch.removed = -1;
+            }
+            int[] columns = scratch.columns;
+            byte[][] rows = scratch.rows;
+            int ringSize = scratch.ringSize;
+            if(top < scratch.removed || top >= scratch.loaded || bottom < scratch.loaded) {
+                // Not a continuation of the current window, so start over.
+                for(int x = 0; x < width; x++) {
+                    columns[x] = 0;
+                }
+                scratch.loaded = scratch.removed = top;
+            }
+
+            for(; scratch.removed < top; scratch.removed++) {
+                kernels.subtractWidened(rows[scratch.removed % ringSize], 0, columns, 0, width);
+            }
+            for(; scratch.loaded < bottom; scratch.loaded++) {
+                byte[] buffer = rows[scratch.loaded % ringSize];
+                byte[] row = source.getRow(scratch.loaded, buffer);
+                if(row != buffer)
+                    System.arraycopy(row, 0, buffer, 0, width);
+                kernels.addWidened(buffer, 0, columns, 0, width);
+            }
+
+            if(scratch.narrow) {
+                int[] prefix = scratch.prefix;
+                int t = 0;
+                for(int x = 0; x < width; x++) {
+                    t += columns[x];
+                    prefix[x + 1] = t;
+                }
+            } else {
+                long[] prefix = scratch.widePrefix;
+                long t = 0;
+                for(int x = 0; x < width; x++) {
+                    t += columns[x];
+                    prefix[x + 1] = t;
+                }
+            }
+        }
+    }
+
+    private final Engine engine;
+
+    // Used for rows only
+    private final Engine.Scratch window = new Engine.Scratch();
 
     public SimpleWindowBinarizer(LuminanceSource source, float fraction) {
+        this(source, fraction, false);
+    }
+
+    public SimpleWindowBinarizer(LuminanceSource source, float fraction, boolean streaming) {
+        this(source, new Engine(fraction, streaming));
+    }
+
+    public SimpleWindowBinarizer(LuminanceSource source, Engine engine) {
         super(source);
-        this.fraction = fraction;
+        this.engine = engine;
     }
 
 
     @Override
     public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
-        return null;
-    }
-
-    public BitMatrix getBlackMatrix() throws NotFoundException {
         LuminanceSource source = getLuminanceSource();
         int width = source.getWidth();
         int height = source.getHeight();
-        byte[] data = source.getMatrix();
-        int[][] totals = Common.cumulative(data, width, height);
-        int r = (int)((Math.min(width, height) * fraction) / 2 + 1);
-        BitMatrix matrix = new BitMatrix(width, height);
-        for(int y = 0; y < height; y++) {
-            int top = Math.max(0, y - r + 1);
-            int bottom = Math.min(height, y + r);
-            int offset = y*width;
-            for(int x = 0; x < width; x++) {
-                int left = Math.max(0, x - r + 1);
-                int right = Math.min(width, x + r);
-                int block = Common.window(totals, top, left, bottom, right);
-                int pixels = (bottom - top) * (right - left);
-                int avg = block / pixels;
-
-                if((data[offset+x] & 0xff) < avg) {
-                    matrix.set(x, y);
-                }
-            }
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
         }
-        return matrix;
+
+        // Consecutive rows only need to add and remove a row of the sliding window.
+        int r = engine.radius(width, height);
+        engine.slideTo(source, y, r, window);
+        int[] thresholds = window.pixelThresholds(width);
+        Engine.averages(window, width, height, r, y, thresholds);
+        BitWriter.write(window.rows[y % window.ringSize], 0, width, thresholds, row);
+        return row;
+    }
+
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
     }
 
     @Override
     public Binarizer createBinarizer(LuminanceSource source) {
-        return null;
+        return new SimpleWindowBinarizer(source, engine);
     }
 }
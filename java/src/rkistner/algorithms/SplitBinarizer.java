@@ -22,70 +22,215 @@ import com.google.zxing.NotFoundException;
 import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * @author Ralf Kister <ralf.kistner@gmail.com>
  */
 public class SplitBinarizer extends Binarizer {
     public static BinarizerFactory createFactory(final int numx, final int numy) {
+        return createFactory(numx, numy, null);
+    }
+
+    public static BinarizerFactory createFactory(final int numx, final int numy, final ForkJoinPool pool) {
+        final Engine engine = new Engine(numx, numy, pool);
         return new BinarizerFactory() {
             public Binarizer getBinarizer(LuminanceSource source) {
-                return new SplitBinarizer(source, numx, numy);
+                return new SplitBinarizer(source, engine);
             }
 
             public String toString() {
-                return "Split [" + numx + "]";
+                return "Split [" + numx + (pool != null ? "|parallel" : "") + "]";
             }
         };
     }
 
-    private int numx;
-    private int numy;
+    /**
+     * Binarizes with a fixed number of tiles. An engine can be shared between threads.
+     *
+     * Each tile is thresholded in place on the source, the same way as a GlobalBinarizer would
+     * threshold a crop of the tile.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final GlobalBinarizer.Engine.Scratch histogram = new GlobalBinarizer.Engine.Scratch();
+            int[] blackPoints;
+            int[] pixelThresholds;
 
-    public SplitBinarizer(LuminanceSource source, int numx, int numy) {
-        super(source);
-        this.numx = numx;
-        this.numy = numy;
-    }
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
 
+        private final int numx;
+        private final int numy;
+        private final ForkJoinPool pool;
+        private final GlobalBinarizer.Engine otsu = new GlobalBinarizer.Engine(new OtsuThresholder());
 
-    @Override
-    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
-        return null;
-    }
+        public Engine(int numx, int numy) {
+            this(numx, numy, null);
+        }
+
+        /**
+         * @param pool if not null, the black points of the tiles are found, and the rows are written,
+         *             in bands on this pool. The result is identical.
+         */
+        public Engine(int numx, int numy, ForkJoinPool pool) {
+            this.numx = numx;
+            this.numy = numy;
+            this.pool = pool;
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        /**
+         * The black points of all tiles are found first, and then spread out over the pixels of a
+         * tile row at a time, so that the rows can be written a word at a time.
+         */
+        @Override
+        protected void binarize(final LuminanceSource source, final BitMatrix matrix, Scratch scratch) {
+            final int width = source.getWidth();
+            final int height = source.getHeight();
+            final byte[] data = source.getMatrix();
+            if(scratch.blackPoints == null || scratch.blackPoints.length != numx*numy) {
+                scratch.blackPoints = new int[numx*numy];
+            }
+            final int[] blackPoints = scratch.blackPoints;
+
+            Bands.run(pool, numx*numy, new Bands.Band() {
+                public void process(int start, int end) {
+                    Scratch local = getScratch();
+                    for(int tile = start; tile < end; tile++) {
+                        blackPoints[tile] = blackPoint(source, tile % numx, tile / numx, local);
+                    }
+                }
+            });
+
+            Bands.run(pool, height, new Bands.Band() {
+                public void process(int start, int end) {
+                    int[] thresholds = getScratch().pixelThresholds(width);
+                    int ty = -1;
+                    for(int y = start; y < end; y++) {
+                        if(ty < 0 || (ty + 1) * height / numy <= y) {
+                            ty = tileRow(y, height);
+                            spread(blackPoints, ty, width, thresholds);
+                        }
+                        BitWriter.write(data, y * width, thresholds, matrix, y);
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return the tile row that contains row y
+         */
+        private int tileRow(int y, int height) {
+            int ty = y * numy / height;
+            while((ty + 1) * height / numy <= y)
+                ty++;
+            while(ty * height / numy > y)
+                ty--;
+            return ty;
+        }
 
-    private static void copy(BitMatrix source, BitMatrix destination, int destinationX, int destinationY) {
-        for(int x = 0; x < source.getWidth(); x++) {
-            for(int y = 0; y < source.getHeight(); y++) {
-                if(source.get(x, y)) {
-                    destination.set(x + destinationX, y + destinationY);
+        private int blackPoint(LuminanceSource source, int tx, int ty, Scratch scratch) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int left = tx * width / numx;
+            int right = (tx + 1) * width / numx;
+            int top = ty * height / numy;
+            int bot = (ty + 1) * height / numy;
+            return otsu.getBlackPoint(source, left, top, right - left, bot - top, scratch.histogram);
+        }
+
+        /**
+         * Fills in the black point of the tile of every pixel in tile row ty.
+         */
+        private void spread(int[] blackPoints, int ty, int width, int[] thresholds) {
+            for(int x = 0; x < numx; x++) {
+                int left = x * width / numx;
+                int right = (x + 1) * width / numx;
+                int blackPoint = blackPoints[ty * numx + x];
+                for(int i = left; i < right; i++) {
+                    thresholds[i] = blackPoint;
                 }
             }
         }
+
+        /**
+         * @return the black point of the tile of every pixel in tile row ty
+         */
+        private int[] tileThresholds(LuminanceSource source, int ty, Scratch scratch) {
+            if(scratch.blackPoints == null || scratch.blackPoints.length != numx*numy) {
+                scratch.blackPoints = new int[numx*numy];
+            }
+            for(int x = 0; x < numx; x++) {
+                scratch.blackPoints[ty * numx + x] = blackPoint(source, x, ty, scratch);
+            }
+            int[] thresholds = scratch.pixelThresholds(source.getWidth());
+            spread(scratch.blackPoints, ty, source.getWidth(), thresholds);
+            return thresholds;
+        }
     }
 
+    private final Engine engine;
+
+    // Used for rows only
+    private Engine.Scratch tiles;
+    private int[] rowThresholds;
+    private int thresholdRow = -1;
+    private byte[] rowData;
+
+    public SplitBinarizer(LuminanceSource source, int numx, int numy) {
+        this(source, new Engine(numx, numy));
+    }
+
+    public SplitBinarizer(LuminanceSource source, Engine engine) {
+        super(source);
+        this.engine = engine;
+    }
+
+
+    /**
+     * Only the tiles in the same tile row as the requested row are thresholded, and their black
+     * points are kept for the following rows in that tile row.
+     */
     @Override
-    public BitMatrix getBlackMatrix() throws NotFoundException {
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
         LuminanceSource source = getLuminanceSource();
         int width = source.getWidth();
         int height = source.getHeight();
-        BitMatrix result = new BitMatrix(width, height);
-        for(int x = 0; x < numx; x++) {
-            int left = x * width / numx;
-            int right = (x + 1) * width / numx;
-            for(int y = 0; y < numy; y++) {
-                int top = y * height / numy;
-                int bot = (y + 1) * height / numy;
-                LuminanceSource cropped = source.crop(left, top, right - left, bot - top);
-                GlobalBinarizer binarizer = new GlobalBinarizer(cropped, new OtsuThresholder());
-                BitMatrix matrix = binarizer.getBlackMatrix();
-                copy(matrix, result, left, top);
-            }
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+
+        int ty = engine.tileRow(y, height);
+        if(ty != thresholdRow) {
+            if(tiles == null)
+                tiles = new Engine.Scratch();
+            rowThresholds = engine.tileThresholds(source, ty, tiles);
+            thresholdRow = ty;
         }
-        return result;
+
+        rowData = source.getRow(y, rowData);
+        BitWriter.write(rowData, 0, width, rowThresholds, row);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
     }
 
     @Override
     public Binarizer createBinarizer(LuminanceSource source) {
-        return new SplitBinarizer(source, numx, numy);
+        return new SplitBinarizer(source, engine);
     }
 }
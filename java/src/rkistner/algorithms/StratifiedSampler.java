@@ -0,0 +1,53 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Samples the center pixel of every cell of a grid over the whole region, so that every part of the
+ * image is represented, at a cost that does not depend on the image size.
+ */
+public class StratifiedSampler implements HistogramSampler {
+    private final int columns;
+    private final int rows;
+
+    public StratifiedSampler(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public void sample(LuminanceSource source, int left, int top, int width, int height, int shift, int[] histogram, byte[] row) {
+        int columns = Math.min(this.columns, width);
+        int rows = Math.min(this.rows, height);
+        for (int j = 0; j < rows; j++) {
+            byte[] luminances = source.getRow(top + (2 * j + 1) * height / (2 * rows), row);
+            for (int i = 0; i < columns; i++) {
+                int x = left + (2 * i + 1) * width / (2 * columns);
+                histogram[(luminances[x] & 0xff) >> shift]++;
+            }
+        }
+    }
+
+    public long cost(int width, int height) {
+        return (long) Math.min(columns, width) * Math.min(rows, height);
+    }
+
+    public String toString() {
+        return "stratified " + columns + "x" + rows;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Samples every step-th pixel of the region, counting in row order. Rows without a sampled pixel are
+ * not read.
+ */
+public class StrideSampler implements HistogramSampler {
+    private final int step;
+
+    public StrideSampler(int step) {
+        this.step = step;
+    }
+
+    public void sample(LuminanceSource source, int left, int top, int width, int height, int shift, int[] histogram, byte[] row) {
+        for (int y = 0; y < height; y++) {
+            // The index of the first sampled pixel in this row, relative to the start of the row
+            int first = (int) ((step - (long) y * width % step) % step);
+            if (first >= width)
+                continue;
+            byte[] luminances = source.getRow(top + y, row);
+            for (int x = left + first; x < left + width; x += step) {
+                histogram[(luminances[x] & 0xff) >> shift]++;
+            }
+        }
+    }
+
+    public long cost(int width, int height) {
+        return ((long) width * height + step - 1) / step;
+    }
+
+    public String toString() {
+        return "every " + step;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * The FastWindowBinarizer for consecutive frames of a video, that only recalculates the thresholds of
+ * blocks near blocks that changed since the previous frame.
+ *
+ * All binarizers of a factory share one Tracker, so a factory should be used for a single stream of
+ * frames, one frame at a time.
+ */
+public final class TemporalWindowBinarizer extends Binarizer {
+    public static BinarizerFactory createFactory(int bs, float frac, int tolerance) {
+        return createFactory(new Tracker(bs, frac, tolerance));
+    }
+
+    /**
+     * @param tracker is shared by all binarizers of the factory, and can be asked how much of each frame
+     *                it reused
+     */
+    public static BinarizerFactory createFactory(final Tracker tracker) {
+        return new BinarizerFactory() {
+            public TemporalWindowBinarizer getBinarizer(LuminanceSource source) {
+                return new TemporalWindowBinarizer(source, tracker);
+            }
+
+            public String toString() {
+                return tracker.toString();
+            }
+        };
+    }
+
+    /**
+     * Keeps the block sums and thresholds of the previous frame.
+     *
+     * The sum of a block is only replaced if the average luminance of the block moved more than the
+     * tolerance away from it, so that slow drift is still picked up once it adds up. Only blocks whose
+     * window contains a replaced block get a new threshold. With a tolerance of 0, the result is
+     * identical to that of FastWindowBinarizer.
+     *
+     * A tracker is not thread safe.
+     */
+    public static final class Tracker {
+        private final int bs;
+        private final float frac;
+        private final int tolerance;
+        private final Kernels kernels = Kernels.get();
+
+        private int width = -1;
+        private int height = -1;
+        private int[] sums;
+        private int[] kept;
+        private int[] changed;
+        private final IntegralImage totals = new IntegralImage();
+        private final LongIntegralImage wideTotals = new LongIntegralImage();
+        private final IntegralImage changes = new IntegralImage();
+        private int[] blockThresholds;
+        private int[] pixelThresholds;
+        private float reused;
+
+        /**
+         * @param tolerance the change in the average luminance of a block that is ignored
+         */
+        public Tracker(int bs, float frac, int tolerance) {
+            this.bs = bs;
+            this.frac = frac;
+            this.tolerance = tolerance;
+        }
+
+        /**
+         * @return the fraction of the block thresholds of the last frame that were kept from the
+         *         frame before it
+         */
+        public float getReusedFraction() {
+            return reused;
+        }
+
+        /**
+         * Forgets the previous frame, so that every threshold of the next frame is calculated.
+         */
+        public void reset() {
+            width = height = -1;
+        }
+
+        /**
+         * Binarizes the next frame. The matrix is cleared before use. If it is null or does not have
+         * the same size as the source, a new one is created.
+         *
+         * @return the matrix containing the result
+         */
+        public BitMatrix binarize(LuminanceSource source, BitMatrix matrix) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            if(matrix == null || matrix.getWidth() != width || matrix.getHeight() != height) {
+                matrix = new BitMatrix(width, height);
+            } else {
+                matrix.clear();
+            }
+            int aw = width / bs;
+            int ah = height / bs;
+            byte[] data = source.getMatrix();
+
+            boolean first = width != this.width || height != this.height;
+            if(first) {
+                sums = new int[aw*ah];
+                kept = new int[aw*ah];
+                changed = new int[aw*ah];
+                blockThresholds = new int[aw*ah];
+                pixelThresholds = new int[width];
+                this.width = width;
+                this.height = height;
+            }
+
+            int replaced = replaceChangedBlocks(data, width, aw, ah, first);
+            int calculated = 0;
+            if(replaced > 0)
+                calculated = calculateThresholds(aw, ah, first);
+            reused = aw*ah == 0 ? 1 : 1 - (float) calculated / (aw*ah);
+
+            // Pixels to the right of the last whole block are never black
+            for(int x = aw*bs; x < width; x++) {
+                pixelThresholds[x] = 0;
+            }
+            for(int by = 0; by < ah; by++) {
+                for(int bx = 0; bx < aw; bx++) {
+                    int threshold = blockThresholds[by*aw + bx];
+                    for(int x = bx*bs; x < (bx+1)*bs; x++) {
+                        pixelThresholds[x] = threshold;
+                    }
+                }
+                for(int y = by*bs; y < (by+1)*bs; y++) {
+                    BitWriter.write(data, y*width, pixelThresholds, matrix, y);
+                }
+            }
+            return matrix;
+        }
+
+        /**
+         * Sums the blocks of the frame, and replaces the kept sums of the blocks that changed more
+         * than the tolerance.
+         *
+         * @return the number of replaced blocks
+         */
+        private int replaceChangedBlocks(byte[] data, int width, int aw, int ah, boolean first) {
+            for(int i = 0; i < aw*ah; i++) {
+                sums[i] = 0;
+            }
+            for(int by = 0; by < ah; by++) {
+                for(int y = by*bs; y < (by+1)*bs; y++) {
+                    kernels.addBlockSums(data, y*width, bs, aw, sums, by*aw);
+                }
+            }
+
+            int limit = tolerance * bs * bs;
+            int replaced = 0;
+            for(int i = 0; i < aw*ah; i++) {
+                if(first || Math.abs(sums[i] - kept[i]) > limit) {
+                    kept[i] = sums[i];
+                    changed[i] = 1;
+                    replaced++;
+                } else {
+                    changed[i] = 0;
+                }
+            }
+            return replaced;
+        }
+
+        /**
+         * Calculates the thresholds of the blocks whose window contains a replaced block.
+         *
+         * @return the number of calculated thresholds
+         */
+        private int calculateThresholds(int aw, int ah, boolean first) {
+            int r = (int)(Math.min(width, height) * frac / bs / 2 + 1);
+            boolean narrow = IntegralImage.fits((long) Math.min(aw, 2*r - 1) * Math.min(ah, 2*r - 1), bs*bs*255L);
+            if(narrow)
+                totals.compute(kept, aw, ah);
+            else
+                wideTotals.compute(kept, aw, ah);
+            changes.compute(changed, aw, ah);
+
+            int calculated = 0;
+            for(int by = 0; by < ah; by++) {
+                int top = Math.max(0, by - r + 1);
+                int bottom = Math.min(ah, by + r);
+                for(int bx = 0; bx < aw; bx++) {
+                    int left = Math.max(0, bx - r + 1);
+                    int right = Math.min(aw, bx + r);
+                    if(!first && changes.window(top, left, bottom, right) == 0)
+                        continue;
+                    int pixels = (bottom - top) * (right - left) * bs * bs;
+                    if(narrow)
+                        blockThresholds[by*aw + bx] = totals.window(top, left, bottom, right) / pixels;
+                    else
+                        blockThresholds[by*aw + bx] = (int) (wideTotals.window(top, left, bottom, right) / pixels);
+                    calculated++;
+                }
+            }
+            return calculated;
+        }
+
+        public String toString() {
+            return "Temporal Window [" + bs + "|" + frac + "|" + tolerance + "]";
+        }
+    }
+
+    private final Tracker tracker;
+
+    // The frame is passed to the tracker once, so that it advances once per frame
+    private BitMatrix matrix;
+
+    public TemporalWindowBinarizer(LuminanceSource source, Tracker tracker) {
+        super(source);
+        this.tracker = tracker;
+    }
+
+    /**
+     * The tracker works on whole frames, so rows are taken from the matrix of the frame.
+     */
+    @Override
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+        int width = getLuminanceSource().getWidth();
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
+        BitMatrix matrix = getBlackMatrix();
+        int[] bits = row.getBitArray();
+        System.arraycopy(matrix.bits, y*matrix.rowSize, bits, 0, matrix.rowSize);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        if(matrix == null)
+            matrix = tracker.binarize(getLuminanceSource(), null);
+        return matrix;
+    }
+
+    @Override
+    public Binarizer createBinarizer(LuminanceSource source) {
+        return new TemporalWindowBinarizer(source, tracker);
+    }
+}
@@ -21,4 +21,10 @@ package rkistner.algorithms;
  */
 public interface ThresholdFinder {
     public int findThreshold(int[] histogram);
+
+    /**
+     * Finds the threshold of the histogram of stats. The result is the same as that of
+     * findThreshold(stats.getHistogram()).
+     */
+    public int findThreshold(HistogramStats stats);
 }
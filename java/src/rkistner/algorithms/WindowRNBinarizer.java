@@ -22,136 +22,240 @@ import com.google.zxing.NotFoundException;
 import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 
+import java.util.concurrent.ForkJoinPool;
+
 
 public final class WindowRNBinarizer extends Binarizer {
 
     public static BinarizerFactory createFactory(final int bs, final float frac, final int threshold) {
+        return createFactory(bs, frac, threshold, null);
+    }
+
+    public static BinarizerFactory createFactory(final int bs, final float frac, final int threshold, final ForkJoinPool pool) {
+        final Engine engine = new Engine(bs, frac, threshold, pool);
         return new BinarizerFactory() {
             public WindowRNBinarizer getBinarizer(LuminanceSource source) {
-                return new WindowRNBinarizer(source, bs, frac, threshold);
+                return new WindowRNBinarizer(source, engine);
             }
 
             public String toString() {
-                return "Window (Reduced Noise) [" + bs + "|" + frac + "|" + threshold + "]";
+                return "Window (Reduced Noise) [" + bs + "|" + frac + "|" + threshold + (pool != null ? "|parallel" : "") + "]";
             }
         };
     }
 
-    private int bs = 8;
-    private float frac = 3;
-    private int threshold = 8;
+    /**
+     * Binarizes with a fixed block size, window fraction and variance threshold. An engine can be
+     * shared between threads.
+     */
+    public static final class Engine extends AbstractBinarizerEngine<Engine.Scratch> {
+        static final class Scratch {
+            final IntegralImage totals = new IntegralImage();
+            final IntegralImage squares = new IntegralImage();
+            // Used instead of the int tables if the sums of squares of a window do not fit in an int
+            final LongIntegralImage wideTotals = new LongIntegralImage();
+            final LongIntegralImage wideSquares = new LongIntegralImage();
+            boolean wide;
+            int var;
+            int[] blockThresholds;
+            int[] pixelThresholds;
 
+            int[] pixelThresholds(int width) {
+                if(pixelThresholds == null || pixelThresholds.length < width)
+                    pixelThresholds = new int[width];
+                return pixelThresholds;
+            }
+        }
 
-    public WindowRNBinarizer(LuminanceSource source, int bs, float frac, int threshold) {
-        super(source);
-        this.bs = bs;
-        this.frac = frac;
-        this.threshold = threshold;
-    }
+        private final int bs;
+        private final float frac;
+        private final int threshold;
+        private final ForkJoinPool pool;
 
+        public Engine(int bs, float frac, int threshold) {
+            this(bs, frac, threshold, null);
+        }
 
-    private void blockTotals(byte[] data, int[][] total, int[][] squares) {
-        LuminanceSource source = getLuminanceSource();
-        int width = source.getWidth();
-        int height = source.getHeight();
-        int aw = width / bs;
-        int ah = height / bs;
+        /**
+         * @param pool if not null, the integral images of the block totals and the thresholding are
+         *             split into bands of block rows and run on this pool. The result is identical.
+         */
+        public Engine(int bs, float frac, int threshold, ForkJoinPool pool) {
+            this.bs = bs;
+            this.frac = frac;
+            this.threshold = threshold;
+            this.pool = pool;
+        }
 
-        for(int by = 0; by < ah; by++) {
-            int ey = (by+1)*bs;
-            for(int bx = 0; bx < aw; bx++) {
-                int t = 0;
-                int t2 = 0;
-
-                for(int y = by*bs; y < ey; y++) {
-                    int offset = y*width+bx*bs;
-                    int ex = offset+bs;
-                    for(; offset < ex; offset++) {
-                        int v = data[offset] & 0xff;
-                        t += v;
-                        t2 += v*v;
-                    }
+        private int radius(int width, int height) {
+            return (int)(Math.min(width, height) * frac / bs / 2 + 1);
+        }
+
+        /**
+         * Chooses int tables if every window fits in them, and long tables otherwise, and calculates the
+         * variance of the whole image exactly.
+         */
+        private void calculateBlocks(byte[] data, int width, int height, Scratch scratch) {
+            int aw = width / bs;
+            int ah = height / bs;
+            int r = radius(width, height);
+            long windowBlocks = (long) Math.min(aw, 2*r - 1) * Math.min(ah, 2*r - 1);
+            scratch.wide = !IntegralImage.fits(windowBlocks, bs*bs*255L*255L);
+
+            long total;
+            long totalSquares;
+            if(scratch.wide) {
+                total = scratch.wideTotals.computeBlocks(data, width, height, bs, scratch.wideSquares).total();
+                totalSquares = scratch.wideSquares.total();
+            } else {
+                total = scratch.totals.computeBlocks(data, width, height, bs, scratch.squares, pool).total();
+                totalSquares = scratch.squares.total();
+            }
+
+            int mean = (int) (total / width / height);
+            scratch.var = (int) (totalSquares / width / height) - mean*mean;
+        }
+
+        /**
+         * @return the threshold for the block, or -1 if the block's variance is too low for it to
+         *         contain any black pixels
+         */
+        private int blockThreshold(int bx, int by, int r, int aw, int ah, Scratch scratch) {
+            int top = Math.max(0, by - r + 1);
+            int left = Math.max(0, bx - r + 1);
+            int bottom = Math.min(ah, by + r);
+            int right = Math.min(aw, bx + r);
+
+            int pixels = (bottom - top) * (right - left) * bs * bs;
+            int avg;
+            int blockSquare;
+            if(scratch.wide) {
+                avg = (int) (scratch.wideTotals.window(top, left, bottom, right) / pixels);
+                blockSquare = (int) (scratch.wideSquares.window(top, left, bottom, right) / pixels);
+            } else {
+                avg = scratch.totals.window(top, left, bottom, right) / pixels;
+                blockSquare = scratch.squares.window(top, left, bottom, right) / pixels;
+            }
+            int variance = blockSquare - avg*avg;
+
+            if(variance * threshold > scratch.var)
+                return avg;
+            else
+                return -1;
+        }
+
+        @Override
+        protected Scratch createScratch() {
+            return new Scratch();
+        }
+
+        @Override
+        protected void binarize(LuminanceSource source, final BitMatrix matrix, final Scratch scratch) {
+            final int width = source.getWidth();
+            int height = source.getHeight();
+            final int r = radius(width, height);
+
+            final int aw = width / bs;
+            final int ah = height / bs;
+            final byte[] data = source.getMatrix();
+            calculateBlocks(data, width, height, scratch);
+
+            Bands.run(pool, ah, new Bands.Band() {
+                public void process(int start, int end) {
+                    threshold(data, width, r, aw, ah, scratch, matrix, start, end);
+                }
+            });
+        }
+
+        /**
+         * Blocks without black pixels get a threshold of -1, so every row can be written completely.
+         */
+        private void threshold(byte[] data, int width, int r, int aw, int ah, Scratch scratch, BitMatrix matrix, int startBy, int endBy) {
+            Scratch local = getScratch();
+            if(local.blockThresholds == null || local.blockThresholds.length < aw)
+                local.blockThresholds = new int[aw];
+            int[] blockThresholds = local.blockThresholds;
+            int[] thresholds = local.pixelThresholds(width);
+            for(int by = startBy; by < endBy; by++) {
+                for(int bx = 0; bx < aw; bx++) {
+                    blockThresholds[bx] = blockThreshold(bx, by, r, aw, ah, scratch);
+                }
+                BitWriter.spread(blockThresholds, aw, bs, thresholds, width);
+                for(int y = by*bs; y < (by+1)*bs; y++) {
+                    BitWriter.write(data, y*width, thresholds, matrix, y);
                 }
-                total[by][bx] = t;
-                squares[by][bx] = t2;
             }
         }
     }
 
-    private static int variance(int[][] cumulative, int[][] cumulativeSquares, int x, int y, int r, int width, int height, int mult) {
-        int top = Math.max(0, y - r + 1);
-        int left = Math.max(0, x - r + 1);
-        int bottom = Math.min(height, y + r);
-        int right = Math.min(width, x + r);
+    private final Engine engine;
 
-        int block = Common.window(cumulative, top, left, bottom, right);
-        int pixels = (bottom - top) * (right - left) * mult;
-        int avg = block / pixels;
-        int blockSquare = Common.window(cumulativeSquares, top, left, bottom, right);
-        int variance = blockSquare / pixels - avg*avg;
+    // Used for rows only
+    private Engine.Scratch blocks;
+    private int[] rowThresholds;
+    private int thresholdRow = -1;
+    private byte[] rowData;
 
-        return variance;
+    public WindowRNBinarizer(LuminanceSource source, int bs, float frac, int threshold) {
+        this(source, new Engine(bs, frac, threshold));
     }
 
-
-    @Override
-    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
-        return null;
+    public WindowRNBinarizer(LuminanceSource source, Engine engine) {
+        super(source);
+        this.engine = engine;
     }
 
+    /**
+     * Rows need the variance of the whole image, so the block totals are calculated once for all rows,
+     * but the block thresholds are only calculated for the block row of the requested row, and kept for
+     * the following rows in the same block row.
+     */
     @Override
-    public BitMatrix getBlackMatrix() throws NotFoundException {
+    public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
         LuminanceSource source = getLuminanceSource();
         int width = source.getWidth();
         int height = source.getHeight();
-        int r = (int)(Math.min(width, height) * frac / bs / 2 + 1);
+        if (row == null || row.getSize() < width) {
+            row = new BitArray(width);
+        } else {
+            row.clear();
+        }
 
+        int bs = engine.bs;
         int aw = width / bs;
         int ah = height / bs;
-        byte[] data = source.getMatrix();
-
-        int[][] blockTotal = new int[ah][aw];
-        int[][] blockSquares = new int[ah][aw];
-        blockTotals(data, blockTotal, blockSquares);
+        int by = y / bs;
+        if(by >= ah)
+            return row;
 
-        int[][] totals = Common.cumulative(blockTotal);
-        int[][] squares = Common.cumulative(blockSquares);
-
-        int mean = totals[ah][aw] / width / height;
-        int var = squares[ah][aw] / width / height - mean*mean;
-
-        BitMatrix matrix = new BitMatrix(width, height);
-        for(int by = 0; by < ah; by++) {
+        if(blocks == null) {
+            blocks = new Engine.Scratch();
+            engine.calculateBlocks(source.getMatrix(), width, height, blocks);
+        }
+        if(thresholdRow != by) {
+            if(rowThresholds == null)
+                rowThresholds = new int[aw];
+            int r = engine.radius(width, height);
             for(int bx = 0; bx < aw; bx++) {
-                int top = Math.max(0, by - r + 1);
-                int left = Math.max(0, bx - r + 1);
-                int bottom = Math.min(ah, by + r);
-                int right = Math.min(aw, bx + r);
-
-                int block = Common.window(totals, top, left, bottom, right);
-                int pixels = (bottom - top) * (right - left) * bs * bs;
-                int avg = block / pixels;
-
-                int variance = variance(totals, squares, bx, by, r, aw, ah, bs*bs);
-
-
-                if(variance * threshold > var) {
-                    for(int y = by*bs; y < (by+1)*bs; y++) {
-                        for(int x = bx*bs; x < (bx+1)*bs; x++) {
-                            int pixel = data[y*width + x] & 0xff;
-                            if(pixel < avg)
-                                matrix.set(x, y);
-                        }
-                    }
-                }
+                rowThresholds[bx] = engine.blockThreshold(bx, by, r, aw, ah, blocks);
             }
+            BitWriter.spread(rowThresholds, aw, bs, blocks.pixelThresholds(width), width);
+            thresholdRow = by;
         }
-        return matrix;
+
+        rowData = source.getRow(y, rowData);
+        BitWriter.write(rowData, 0, width, blocks.pixelThresholds, row);
+        return row;
+    }
+
+    @Override
+    public BitMatrix getBlackMatrix() throws NotFoundException {
+        return engine.binarize(getLuminanceSource(), null);
     }
 
     @Override
     public Binarizer createBinarizer(LuminanceSource source) {
-        return null;
+        return new WindowRNBinarizer(source, engine);
     }
 
 }
\ No newline at end of file
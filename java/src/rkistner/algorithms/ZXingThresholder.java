@@ -91,6 +91,10 @@ public class ZXingThresholder implements ThresholdFinder {
         return bestValley;
     }
 
+    public int findThreshold(HistogramStats stats) {
+        return findThreshold(stats.getHistogram());
+    }
+
     public String toString() {
         return "ZXing";
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010 Ralf Kistner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package rkistner.algorithms;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels using the incubating Vector API with 256 bit vectors. Anything that does not fill a whole
+ * vector is left to the scalar implementation.
+ *
+ * The comparisons are scalar too. Comparing a vector of 32 bytes to one threshold is no faster than the
+ * branchless scalar loop, and comparing them to 32 int thresholds is slower, since the bytes have to be
+ * widened to four vectors of ints first.
+ *
+ * This is compiled separately from the rest of the source, since it needs --add-modules
+ * jdk.incubator.vector both to compile and to run. See Kernels.get().
+ */
+final class VectorKernels extends Kernels {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_256;
+    private static final VectorSpecies<Byte> BYTES_64 = ByteVector.SPECIES_64;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_256;
+    private static final VectorSpecies<Integer> INTS_128 = IntVector.SPECIES_128;
+
+    /**
+     * @return the kernels, or null if the hardware has no 256 bit vectors, in which case the Vector
+     *         API would fall back to a slow emulation
+     */
+    public static Kernels create() {
+        if(ByteVector.SPECIES_PREFERRED.vectorBitSize() < BYTES.vectorBitSize())
+            return null;
+        return new VectorKernels();
+    }
+
+    private VectorKernels() {
+    }
+
+    @Override
+    public void addWidened(byte[] src, int offset, int[] dst, int dstOffset, int length) {
+        int bound = BYTES_64.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += BYTES_64.length()) {
+            IntVector v = ((IntVector) ByteVector.fromArray(BYTES_64, src, offset + i).convertShape(VectorOperators.B2I, INTS, 0)).and(0xff);
+            v.add(IntVector.fromArray(INTS, dst, dstOffset + i)).intoArray(dst, dstOffset + i);
+        }
+        super.addWidened(src, offset + i, dst, dstOffset + i, length - i);
+    }
+
+    @Override
+    public void subtractWidened(byte[] src, int offset, int[] dst, int dstOffset, int length) {
+        int bound = BYTES_64.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += BYTES_64.length()) {
+            IntVector v = ((IntVector) ByteVector.fromArray(BYTES_64, src, offset + i).convertShape(VectorOperators.B2I, INTS, 0)).and(0xff);
+            IntVector.fromArray(INTS, dst, dstOffset + i).sub(v).intoArray(dst, dstOffset + i);
+        }
+        super.subtractWidened(src, offset + i, dst, dstOffset + i, length - i);
+    }
+
+    /**
+     * Blocks of 4 and 8 pixels are summed within the int or long lanes they occupy, by adding
+     * neighbouring bytes, then neighbouring shorts, and so on. Other block sizes are scalar.
+     */
+    @Override
+    public void addBlockSums(byte[] src, int offset, int bs, int count, int[] dst, int dstOffset) {
+        int i = 0;
+        if(bs == 4) {
+            for(; i + 8 <= count; i += 8) {
+                IntVector v = ByteVector.fromArray(BYTES, src, offset + i*4).reinterpretAsInts();
+                v = v.and(0x00ff00ff).add(v.lanewise(VectorOperators.LSHR, 8).and(0x00ff00ff));
+                v = v.and(0xffff).add(v.lanewise(VectorOperators.LSHR, 16));
+                v.add(IntVector.fromArray(INTS, dst, dstOffset + i)).intoArray(dst, dstOffset + i);
+            }
+        } else if(bs == 8) {
+            for(; i + 4 <= count; i += 4) {
+                LongVector v = ByteVector.fromArray(BYTES, src, offset + i*8).reinterpretAsLongs();
+                v = v.and(0x00ff00ff00ff00ffL).add(v.lanewise(VectorOperators.LSHR, 8).and(0x00ff00ff00ff00ffL));
+                v = v.and(0x0000ffff0000ffffL).add(v.lanewise(VectorOperators.LSHR, 16).and(0x0000ffff0000ffffL));
+                v = v.and(0xffffffffL).add(v.lanewise(VectorOperators.LSHR, 32));
+                IntVector sums = (IntVector) v.convertShape(VectorOperators.L2I, INTS_128, 0);
+                sums.add(IntVector.fromArray(INTS_128, dst, dstOffset + i)).intoArray(dst, dstOffset + i);
+            }
+        }
+        super.addBlockSums(src, offset + i*bs, bs, count - i, dst, dstOffset + i);
+    }
+
+    /**
+     * Blocks of 8 pixels are squared a block per vector of ints and summed over the rows of the block
+     * before the lanes are added up. Other block sizes are scalar.
+     */
+    @Override
+    public void sumBlockSquares(byte[] src, int offset, int stride, int bs, int count, int[] dst, int dstOffset) {
+        int i = 0;
+        if(bs == 8) {
+            for(; i + 4 <= count; i += 4) {
+                IntVector t0 = IntVector.zero(INTS);
+                IntVector t1 = t0;
+                IntVector t2 = t0;
+                IntVector t3 = t0;
+                for(int y = 0; y < 8; y++) {
+                    ByteVector bytes = ByteVector.fromArray(BYTES, src, offset + y*stride + i*8);
+                    IntVector v0 = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, 0)).and(0xff);
+                    IntVector v1 = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, 1)).and(0xff);
+                    IntVector v2 = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, 2)).and(0xff);
+                    IntVector v3 = ((IntVector) bytes.convertShape(VectorOperators.B2I, INTS, 3)).and(0xff);
+                    t0 = t0.add(v0.mul(v0));
+                    t1 = t1.add(v1.mul(v1));
+                    t2 = t2.add(v2.mul(v2));
+                    t3 = t3.add(v3.mul(v3));
+                }
+                dst[dstOffset + i] = t0.reduceLanes(VectorOperators.ADD);
+                dst[dstOffset + i + 1] = t1.reduceLanes(VectorOperators.ADD);
+                dst[dstOffset + i + 2] = t2.reduceLanes(VectorOperators.ADD);
+                dst[dstOffset + i + 3] = t3.reduceLanes(VectorOperators.ADD);
+            }
+        }
+        super.sumBlockSquares(src, offset + i*bs, stride, bs, count - i, dst, dstOffset + i);
+    }
+
+    @Override
+    public String toString() {
+        return "vector";
+    }
+}